@@ -61,6 +61,31 @@
  * Date       : 01/05/2023
  * - The Colocalization_Finder plugin allows the analysis of image stacks
  * 
+ * Version 1.9
+ * Date       : 19/10/2026
+ * - The coefficients are computed once per update into a snapshot shared by the status label and the Results window
+ * - While dragging the scatterPlot ROI, an approximate preview computed on a stratified pixel subsample fitting a frame time budget is displayed (flagged by a '~' within the label), the exact calculation being performed upon release
+ * - All the ROIs of the RoiManager can be analyzed against the scatterPlot ROI in a single pixel pass, one row per ROI being written to the Results window (the 'u' key or the analyzeRoiManagerByMacro call)
+ * - All the colored scatterPlot ROIs stored within the RoiManager can be evaluated simultaneously in a single pixel pass, one row per gate being written to the Results window together with a combined multicolor overlay (the 'q' key or the analyzeGatesByMacro call)
+ * - The scatterPlot counts are kept within an integer histogram (no more saturating at 255), displayed through a Counts, Linear, Log or Gamma LUT chosen within the settings dialog, and exportable as a 32-bit picture (the '9' key or the exportScatterPlotCounts call)
+ * - Threshold sweeps of Pearson's coefficient, M1, M2 and %pixels over all the threshold pairs computed from cumulative sums of the scatterPlot histogram, the curves along a chosen diagonal being output as a ResultsTable and a Plot (the '6' key or the thresholdSweepByMacro call)
+ * - Percentile bootstrap confidence intervals of Pearson's coefficient, Overlap, k1, k2, M1, M2, M1_norm, M2_norm, Slope and Intercept computed in parallel by resampling the joint histogram of the analyzed pixels, written for each results row when a number of replicates is set within the settings dialog (or by the bootstrapByMacro call)
+ * - Object based colocalization: the spots of both channels (connected components above minI1 and minI2) are matched through a k-d tree, the numbers of spots, the percentages of them having a spot of the other channel within the chosen distance and the median nearest neighbour distances being appended to the Results window together with the distance distributions (the '7' key or the analyzeObjectsByMacro call)
+ * - Van Steensel cross-correlation function (Pearson's coefficient versus the x shift of channel 2) computed by FFT over all the shifts at once, optionally within the result image ROI, and plotted with its peak position and FWHM (the '8' key or the crossCorrelationByMacro call)
+ * - Optional chromatic shift correction: the sub-pixel translation between both channels is estimated by FFT phase correlation (once per picture pair and slice) and channel 2 is read through a bilinearly interpolated shifted view (Channel_alignment within the settings dialog or the setChannelAlignmentByMacro call)
+ * - Local Pearson map: Pearson's coefficient within a sliding window around each pixel (optionally restricted to the pixels within the scatterPlot ROI) computed in parallel from integral images and displayed as a 32-bit picture next to the result picture (from the maps dialog of the '0' key or the localPearsonMapByMacro call)
+ * - Normalized mean deviation product (nMDP) image of the current slice or of the whole stack, optionally within the result picture ROI, filled in parallel tiles (from the maps dialog of the '0' key or the nmdpImageByMacro call)
+ * - Stacks: the bins, the scatterPlot histogram and the comparison of the slices around the current one are precomputed in the background and kept within a small per slice cache, so that slice changes are immediate, and the scatterPlot limits are replaced by the stack wide intensity limits once computed in the background
+ * - All the channel pairs of a multichannel picture analyzed in a single pixel pass (Pearson's coefficient, overlap and Manders coefficients with per channel auto thresholds), for the current slice or all of them, written to a ResultsTable together with heat maps (proposed when a multichannel picture is the only one open, or the analyzeChannelsByMacro call)
+ * - Time series: every frame of a hyperstack (at the current z position) analyzed with the current scatterPlot ROI and optionally the result picture ROI, the frames being computed in parallel and cached so that only the new ones are computed, written to a table together with a Pearson's coefficient, M1 and M2 versus time plot, optionally following a growing stack (from the maps dialog of the '0' key or the timeSeriesByMacro call)
+ * - One versus many: picture 1 compared with every other open picture of its size (or with the given ones) through the current scatterPlot ROI and result picture ROI, its values and bins being computed once and the targets analyzed in parallel, one row per target being written to the Results window (from the dialog of the '0' key or the analyzeTargetsByMacro call)
+ * - Automatic gates proposed from the scatterPlot histogram alone: the smoothed log counts are split along the watershed lines between their prominent maxima, each populated region becoming a scatterPlot ROI added to the RoiManager as a gate, its size, peak and mean intensities being written to a table (from the dialog of the '0' key or the proposeGatesByMacro call)
+ * - Log and quantile binning of the scatterPlot axes (the ScatterPlot_binning choice of the settings dialog or the setScatterPlotBinningByMacro call), the bins of 8- and 16-bit intensities being read from lookup tables, the gates, axis ticks and statistics following the chosen binning, float pictures no longer being clamped to [0, 2^32]
+ * - Histogram pyramid of each slice at full intensity resolution, from which the scatterPlot histogram of new limits, size or binning is aggregated without reading the pixels again whenever its bins do not split the cells (always for integer limits of integer pictures); the mouse wheel zooms the scatterPlot around the pointed intensities, and pans it along channel 1 with shift or channel 2 with alt
+ * - scatterPlot limits may be given as percentiles of the whole stack (e.g. "0.1%"), see also getPercentilesByMacro
+ * - Batch of file pairs: each file of a directory compared with the file of the same name within a second directory over all their pages, uncompressed 16-bit TIFF files being memory mapped and their pages read in place as ShortBuffer views, the other ones opened by the ImageJ Opener (from the dialog of the '0' key or the analyzeFilesByMacro call)
+ * - The batch of file pairs runs as a pipeline of bounded queues: reader threads reading the pairs ahead, the analysis threads and a single writer outputting the rows in the order of the files, the throughput, busy time and queue depths of each stage being logged (setBatchPipelineByMacro, getBatchStatistics)
+ * 
  *   This program is free software; you can redistribute it and/or modify
  *   it under the terms of the GNU General Public License as published by
  *   the Free Software Foundation; either version 2 of the License, or
@@ -80,12 +105,15 @@ import ij.IJ;
 import ij.Prefs;
 import ij.ImageListener;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.WindowManager;
 
 import ij.gui.GenericDialog;
 import ij.gui.ImageCanvas;
 import ij.gui.ImageWindow;
 import ij.gui.Overlay;
+import ij.gui.Plot;
+import ij.gui.PlotWindow;
 import ij.gui.Line;
 import ij.gui.Roi;
 import ij.gui.RoiListener;
@@ -93,24 +121,37 @@ import ij.gui.ShapeRoi;
 import ij.gui.TextRoi;
 import ij.gui.Toolbar;
 
+import ij.io.DirectoryChooser;
+import ij.io.Opener;
+
 import ij.measure.CurveFitter;
+import ij.measure.ResultsTable;
 
 import ij.plugin.Colors;
 import ij.plugin.PlugIn;
 import ij.plugin.RGBStackMerge;
+import ij.plugin.RoiScaler;
+import ij.plugin.filter.GaussianBlur;
+import ij.plugin.filter.MaximumFinder;
 import ij.plugin.filter.ThresholdToSelection;
 import ij.plugin.frame.Fitter;
 import ij.plugin.frame.RoiManager;
 
+import ij.process.AutoThresholder;
 import ij.process.ByteProcessor;
+import ij.process.FloatPolygon;
+import ij.process.FloatProcessor;
 import ij.process.ImageConverter;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 import ij.process.ShortProcessor;
+import ij.process.StackStatistics;
 
+import ij.text.TextPanel;
 import ij.text.TextWindow;
 
 import ij.util.ArrayUtil;
+import ij.util.ThreadUtil;
 import ij.util.Tools;
 
 import java.awt.Button;
@@ -119,6 +160,7 @@ import java.awt.Choice;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.EventQueue;
 import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.FontMetrics;
@@ -138,16 +180,44 @@ import java.awt.event.WindowEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.Panel;
-import java.awt.Point;
+
+import java.io.File;
+import java.io.IOException;
 
 import java.net.URL;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.Timer;
 
-public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListener, ImageListener, RoiListener, KeyListener, MouseListener, MouseMotionListener, Runnable
+public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListener, ImageListener, RoiListener, KeyListener, MouseListener, MouseMotionListener, MouseWheelListener, Runnable
 {
 	private static int 							multiClickInterval;
 	private Thread								bgThread;		// thread for launching the calculation (in the background)
@@ -183,7 +253,6 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 	static	ImageWindow			   				                                   scatterPlotWindow;
 	static	ThresholdToSelection				ts;
 	static	Overlay								                                   scatterplotOverlay       , resultImageOverlay;
-	static	CurveFitter							cf;
 	static	TextWindow							ResultsWindow;
 	static	String																							  resultImageRoiName;
 	static	     Roi							colocMaskRoi,                      scatterPlotRoi           , resultImageRoi;
@@ -193,9 +262,16 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 	static	Label								statusLabel;
 	static	String								title        = "Colocalization Finder";
 	static	String								ResultsTitle = "Colocalization Finder Results";
+	static	String								BootstrapTitle = "Colocalization Finder Bootstrap";
 	static	String								ResultsHeadings, spaceString, sstr;
+	static	String								ObjectHeadings = "\tSpots_1\tSpots_2\t%Spots_1_coloc\t%Spots_2_coloc\tNN_distance_1\tNN_distance_2";
+	static	String								gateProperty = "ColocalizationFinder";		// Roi property flagging the scatterPlot ROIs stored within the RoiManager
 	static	boolean								pearson					= true;
 	static	boolean								comparisonRunning		= false;
+	static	boolean								previewShown			= false;	// true when the displayed coefficients and mask come from an approximate preview pass
+	static	int									previewBlockSize		= 1;
+	static	double								previewBudget			= 16;		// frame time budget (in ms) of a preview pass
+	static	double								nsPerPixel				= 0;		// running estimate of the pass cost per analyzed pixel
 //	static	boolean								doubleClick;
 	static	int																								  resultImageSliceNumbers, resultImageSlicePosition;
 	static	final int							show_Pearson			= 0x1;
@@ -226,10 +302,79 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 	static	double								scatterPlotMin1, scatterPlotMax1, scatterPlotMin2, scatterPlotMax2;
 	static	double								PearsonValue, xMean, yMean, xStd, yStd;						// Variables from getR(double[] d1, double[] d2) that are made global to be able to be outputed
 	static	String								PearsonValueAsString;
+	static	ColocalizationMetrics				metrics;
+	static	final StringBuilder					statusBuffer			= new StringBuilder(256);	// reused for every status label update
 	static	byte							[]	maskPixels;
-	static	double							[]	intx, inty, lesx, lesy, cfParams;
+	static	int								[]	binIndices;					// per pixel packed scatterPlot bin indices, see getBinIndices()
+	static	int								[]	scatterPlotHistogram;		// scatterPlot counts indexed by packed bin index, rendered to the display by renderScatterPlot()
+	static	RoiSpans							resultImageSpans;			// cached spans of the result image ROI, see getResultImageSpans()
+	static	String								resultImageSpansSignature;
+	static	RoiSpans							histogramSpans;				// result image ROI (and bin indices) the scatterPlot histogram was computed for
+	static	int								[]	histogramBinIndices;
+	static	String							[]	scatterPlotLutText		= {"Counts", "Linear", "Log", "Gamma"};
+	static	int									scatterPlotLutIndex		= 0;
+	static	String							[]	scatterAxisText			= {"Linear", "Log", "Quantile"};
+	static	int									scatterAxisIndex		= 0;		// binning of both scatterPlot axes, see ScatterAxis
+	static	ScatterAxis						[]	scatterAxes;				// axes of scatterAxesKey, see getScatterAxes()
+	static	double							[]	scatterAxesKey;
+	static	double								scatterPlotGamma		= 0.5;
+	static	int									bootstrapReplicates		= 0;		// bootstrap confidence intervals computed for each written results row when not 0
+	static	double								bootstrapLevel			= 95;
+	static	final long							bootstrapSeed			= 0x5DEECE66DL;
+	static	int									mapIndex				= 0;		// last map chosen within the maps dialog
+	static	int									localWindowSize			= 9;		// side (in pixels) of the windows of the local Pearson map
+	static	int									ccfMaxShift				= 20;		// x shifts (in pixels) on each side of the Van Steensel cross-correlation function
+	static	boolean								localMapGated			= false;	// local Pearson map restricted to the pixels within the scatterPlot ROI
+	static	String							[]	localMapPixelsText		= {"All", "ScatterPlot ROI"};
+	static	double								autoGateSigma			= 2;		// smoothing (in bins) of the scatterPlot histogram before proposing gates
+	static	double								autoGateProminence		= 1;		// minimal prominence (in log counts) of a proposed gate peak
+	static	double								autoGateMinPercent		= 1;		// smallest proposed gate (in % of the pixels)
+	static	double								objectDistance			= 2;		// distance (in pixels) below which two spots are considered as colocalized
+	static	int									batchReaders			= 2;		// threads of the batch of file pairs reading the pairs ahead of the analysis
+	static	int									batchQueueSize			= 4;		// pairs waiting between two stages of the batch, beyond which the upstream stage waits
+	static	boolean								batchBusy				= false;	// a batch started from the dialog is running
+	static	String								batchStatistics			= "";		// throughput and queue depths of the stages of the last batch
+	static	final String					[]	bootstrapLabels			= {"Pearson's_Rr", "Overlap", "k1", "k2", "M1", "M2", "M1_norm", "M2_norm", "Slope", "Intercept"};
+	static	SliceData							currentSliceData;
+	static	int									sliceCacheSize			= 5;		// slices kept within the cache: the current one and its neighbours
+	static	int									prefetchRadius			= 2;		// slices prefetched on each side of the current one
+	static	final AtomicInteger					prefetchGeneration		= new AtomicInteger();
+	static	final LinkedHashMap<Integer, SliceData>	sliceCache			= new LinkedHashMap<Integer, SliceData>(16, 0.75f, true)
+	{
+		protected boolean removeEldestEntry(Map.Entry<Integer, SliceData> eldest)
+		{
+			return size() > sliceCacheSize;
+		}
+	};
+	static	final ExecutorService				prefetcher				= Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread	thread		= new Thread(r, "Colocalization Finder prefetcher");
+			thread.setDaemon	(true);
+			thread.setPriority	(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+	static	ChannelView							channel1, channel2;			// pixel access to both channels, channel 2 being possibly realigned onto channel 1
+	static	String							[]	channelAlignmentText	= {"None", "Phase correlation"};
+	static	int									channelAlignmentIndex	= 0;
+	static	final ConcurrentHashMap<String, double[]>	channelShifts	= new ConcurrentHashMap<String, double[]>();	// estimated shifts per picture pair and slice
+	static	ReferenceChannel					referenceChannel;			// picture 1 values and bins of the last one versus many comparison
+	static	ImagePlus							source1, source2;			// pictures chosen within the dialog (image1 and image2 being copies of them), followed by the time series
+	static	String								TimeSeriesTitle			= "Colocalization Finder Time Series";
+	static	final String					[]	timeSeriesLabels		= {"Pearson's_Rr", "Overlap_R", "M1", "M2", "Slope", "nb_pixels"};
+	static	final ArrayList<double[]>			timeSeriesValues		= new ArrayList<double[]>();	// coefficients of each frame (null when not computed yet) for timeSeriesKey
+	static	String								timeSeriesKey, timeSeriesTableKey;
+	static	boolean								timeSeriesWithinRoi		= false;
+	static	boolean								timeSeriesBusy			= false;	// a live update is being computed
+	static	Timer								timeSeriesTimer;			// polls the pictures for new frames while the live time series is on
+	static	final Set<Integer>					pluginOutputIDs			= Collections.synchronizedSet(new HashSet<Integer>());	// pictures shown by the plugin
+	static	Timer								exactPassTimer;				// exact pass following a preview once the scatterPlot ROI stays still
+	static	PlotWindow							timeSeriesPlotWindow;
+	static	final int							BELOW_MIN				= 1 << 30;
+	static	double							[]	cfParams;
 	static	String							[]	titles;
-	static	Point							[]	pointsInsideRoi;
 	static	ColorDefinition					[]	colors;
 
 
@@ -302,6 +447,14 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 			return;
 		}
 
+		// All the channel pairs of a multichannel picture, also proposed when it is the only picture open
+		imp = WindowManager.getCurrentImage();
+		if (arg.equals("channels") || (imp != null && imp.getNChannels() > 1 && WindowManager.getImageCount() == 1))
+		{
+			analyzeChannelsDialog(imp);
+			return;
+		}
+
 		wList = WindowManager.getIDList();
 		if (wList == null || wList.length < 2)
 		{
@@ -334,6 +487,7 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 
 //		resultImage.show();
 		comparison(false, false);
+		computeStackLimits();								// after the gate limits have been read back from the scatterPlot ROI
 	}
 
 	public void run()
@@ -343,7 +497,7 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 //			IJ.wait(50);								// delay to make sure the roi has been updated
 				 if (scatterPlotModified && !comparisonRunning)
 			{
-				comparison(false, false);
+				comparison(false, false, true);
 				scatterPlot.draw();
 			}
 			else if (resultImageModified && !comparisonRunning)
@@ -392,8 +546,12 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		i1Index					= gd.getNextChoiceIndex	();
 		i2Index					= gd.getNextChoiceIndex	();
 		scatterPlotSizeIndex	= gd.getNextChoiceIndex	();
-		image1					= WindowManager.getImage(wList[i1Index]).duplicate();
-		image2					= WindowManager.getImage(wList[i2Index]).duplicate();
+		source1					= WindowManager.getImage(wList[i1Index]);
+		source2					= WindowManager.getImage(wList[i2Index]);
+		image1					= source1.duplicate();
+		image2					= source2.duplicate();
+		clearSliceCache			();							// the statics outlive the previous session (IJ.register)
+		currentSliceData		= null;
 		WindowManager			.getImage(wList[i1Index]).getWindow().setIconImage(icon);
 		WindowManager			.getImage(wList[i2Index]).getWindow().setIconImage(icon);
 
@@ -466,6 +624,7 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		canvas					= scatterPlotWindow.getCanvas		();
 		canvas					.addKeyListener						(this);
 		canvas					.addMouseListener					(this);
+		canvas					.addMouseWheelListener				(this);
 
 		Panel bottomPanel		= new Panel							();
 		int hgap				= IJ.isMacOSX						()?1:5;
@@ -501,19 +660,16 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		yOffset					= windowOffset - xOffset;
 		image1Processor			= image1.getProcessor();
 		image2Processor			= image2.getProcessor();
+		updateChannels			();
 		scatterPlotProcessor	= scatterPlot.getProcessor();
-
-		for (y = 0; y < h1; y++)
-		{
-			for (x = 0; x < w1; x++)
-			{
-						z1				=                   (int) ((    image1Processor.getPixelValue(x, y) - scatterPlotMin1) * scatterPlotSize / (scatterPlotMax1 - scatterPlotMin1));
-						z2				= scatterPlotSize - (int) ((    image2Processor.getPixelValue(x, y) - scatterPlotMin2) * scatterPlotSize / (scatterPlotMax2 - scatterPlotMin2));
-						count			=                   (int)  scatterPlotProcessor.getPixelValue(z1 + xOffset, z2 + yOffset);
-						count++;
-						scatterPlotProcessor.putPixelValue(z1 + xOffset, z2 + yOffset, count);
-			}
-		}
+		binIndices				= getBinIndices();
+		scatterPlotHistogram	= new int[(scatterPlotSize + 1) * (scatterPlotSize + 1)];
+
+		for (pos = 0; pos < w1 * h1; pos++)
+			if (binIndices[pos] >= 0)
+				scatterPlotHistogram[binIndices[pos] & ~BELOW_MIN]++;
+		histogramSpans			= null;		// this first histogram also counts the pixels at the scatterPlot minimum, thus cannot be updated incrementally
+		renderScatterPlot();
 //		scatterPlot				.setRoi(new Roi(xOffset + scatterPlotSize + 1 - 150, yOffset, 150, 150));
 		scatterPlot				.setRoi(new Roi(xOffset, yOffset, scatterPlotSize + 1, scatterPlotSize + 1));
 //		scatterPlot				.setRoi(new Roi(xOffset + 20, yOffset, 237, 237));
@@ -527,9 +683,8 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 
 	static public void rebuild_scatter_plot()
 	{
-		for (y = 0; y <= scatterPlotSize; y++)
-			for (x = 0; x <= scatterPlotSize; x++)
-				scatterPlotProcessor.putPixelValue(x + xOffset, y + yOffset, 0);
+		RoiSpans	spans;
+		double	[]	key;
 
 		resultImageRoi			= resultImage.getRoi();
 		if (resultImageRoi != null)
@@ -539,45 +694,534 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 				resultImageRoi = null;
 		}
 
-		if(resultImageRoi == null)
+		key						= getBinIndicesKey();
+		binIndices				= getCachedBinIndices(currentSliceData, key);
+		spans					= getResultImageSpans();
+
+		// When only the ROI changed since the last histogram (same bin indices), the pixels which left the ROI are subtracted and the
+		// ones which entered it are added, as long as this touches fewer pixels than a rebuild
+		if (binIndices != null && histogramSpans != null && histogramBinIndices == binIndices && scatterPlotHistogram != null && scatterPlotHistogram.length == (scatterPlotSize + 1) * (scatterPlotSize + 1)
+			&& histogramSpans.differenceSize(spans) + spans.differenceSize(histogramSpans) < spans.pixelCount)
+		{
+			histogramSpans		.addDifference(spans, binIndices, scatterPlotHistogram, -1);
+			spans				.addDifference(histogramSpans, binIndices, scatterPlotHistogram, 1);
+		}
+		else
+		{
+			if (scatterPlotHistogram == null || scatterPlotHistogram.length != (scatterPlotSize + 1) * (scatterPlotSize + 1))
+				scatterPlotHistogram	= new int[(scatterPlotSize + 1) * (scatterPlotSize + 1)];
+			// New limits, size or binning: served by the histogram pyramid unless its cells are too coarse for them
+			if (binIndices != null || !getPyramidHistogram(currentSliceData, spans, key, scatterPlotHistogram))
+			{
+				binIndices		= getBinIndices(currentSliceData, key);
+				getSliceHistogram(currentSliceData, spans, binIndices, scatterPlotHistogram);
+			}
+		}
+		histogramSpans			= spans;
+		histogramBinIndices		= binIndices;
+		renderScatterPlot();
+//		scatterPlot.updateAndDraw();
+		scatterPlot.draw();
+	}
+
+	// Renders the scatterPlot counts into the 8-bit display through the chosen LUT: the raw counts saturating at 255 ("Counts"),
+	// or the counts scaled to the highest one linearly, logarithmically or through a gamma function
+	static void renderScatterPlot()
+	{
+		int			b1, b2, c, row;
+		int			width		= scatterPlotProcessor.getWidth();
+		int			maxCount	= 0;
+		byte	[]	pixels		= (byte[]) scatterPlotProcessor.getPixels();
+		byte	[]	lut;
+
+		for (c = 0; c != scatterPlotHistogram.length; c++)
+			if (scatterPlotHistogram[c] > maxCount)
+				maxCount		= scatterPlotHistogram[c];
+
+		lut						= new byte[Math.min(maxCount, 1 << 16) + 1];
+		for (c = 0; c != lut.length; c++)
+			lut[c]				= (byte) getScatterPlotDisplayValue(c, maxCount);
+
+		for (b2 = 0; b2 <= scatterPlotSize; b2++)
+		{
+			row					= (scatterPlotSize - b2 + yOffset) * width + xOffset;
+			for (b1 = 0; b1 <= scatterPlotSize; b1++)
+			{
+				c				= scatterPlotHistogram[b2 * (scatterPlotSize + 1) + b1];
+				pixels[row + b1]= c < lut.length ? lut[c] : (byte) getScatterPlotDisplayValue(c, maxCount);
+			}
+		}
+	}
+
+	static int getScatterPlotDisplayValue(int count, int maxCount)
+	{
+		if (count == 0)
+			return 0;
+		switch (scatterPlotLutIndex)
+		{
+			case 1:
+				return (int) Math.round(255.0 * count / maxCount);
+			case 2:
+				return (int) Math.round(255.0 * Math.log1p(count) / Math.log1p(maxCount));
+			case 3:
+				return (int) Math.round(255.0 * Math.pow((double) count / maxCount, scatterPlotGamma));
+			default:
+				return Math.min(count, 255);
+		}
+	}
+
+	// call("Colocalization_Finder.exportScatterPlotCounts");
+	// Shows the raw scatterPlot counts (not saturated) as a 32-bit picture oriented as the scatterPlot
+	public static void exportScatterPlotCounts()
+	{
+		int				b1, b2;
+		FloatProcessor	counts	= new FloatProcessor(scatterPlotSize + 1, scatterPlotSize + 1);
+
+		for (b2 = 0; b2 <= scatterPlotSize; b2++)
+			for (b1 = 0; b1 <= scatterPlotSize; b1++)
+				counts.setf(b1, scatterPlotSize - b2, scatterPlotHistogram[b2 * (scatterPlotSize + 1) + b1]);
+		counts					.resetMinAndMax();
+		showOutput				(new ImagePlus("ScatterPlot counts of " + titles[i1Index] + " and " + titles[i2Index], counts));
+	}
+
+	// Packed scatterPlot bin index (bin2 * (size + 1) + bin1) of a pixel, -1 when outside of the scatterPlot limits and flagged by
+	// BELOW_MIN when not displayed within the scatterPlot (at the scatterPlot minimum of one of the channels), the limits, the size
+	// and the binning being read from the given axes (see getScatterAxes()) so that the bins stay consistent when computed in the
+	// background
+	static int getBinIndex(double v1, double v2, ScatterAxis[] axes)
+	{
+		int b1					= axes[0].getBin(v1);
+		int b2					= axes[1].getBin(v2);
+
+		if (b1 < 0 || b2 < 0)
+			return -1;
+		return (b2 * (axes[0].size + 1) + b1) | (v1 > axes[0].min && v2 > axes[1].min ? 0 : BELOW_MIN);
+	}
+
+	// Axes of the current scatterPlot limits, size and binning
+	static ScatterAxis[] getScatterAxes()
+	{
+		return getScatterAxes(getBinIndicesKey());
+	}
+
+	// Axes of the given key (see getBinIndicesKey()), only built again when the key changes since quantile axes need a stack histogram
+	static synchronized ScatterAxis[] getScatterAxes(double[] key)
+	{
+		if (scatterAxes == null || !Arrays.equals(key, scatterAxesKey))
+		{
+			scatterAxes			= new ScatterAxis[] {	new ScatterAxis((int) key[5], key[0], key[1], (int) key[4], image1),
+														new ScatterAxis((int) key[5], key[2], key[3], (int) key[4], image2)};
+			scatterAxesKey		= key;
+		}
+		return scatterAxes;
+	}
+
+	// call("Colocalization_Finder.setScatterPlotBinningByMacro", _binning);
+	// _binning: Linear, Log or Quantile
+	public static void setScatterPlotBinningByMacro(String _binning)
+	{
+		for (int k = 0; k != scatterAxisText.length; k++)
+			if (scatterAxisText[k].equalsIgnoreCase(_binning.trim()))
+				scatterAxisIndex	= k;
+		scatterPlotProcessor		.setColor(Color.black);
+		scatterPlotProcessor		.resetRoi();
+		scatterPlotProcessor		.fill();
+		build_plot_for_scatter_plot	();
+		rebuild_scatter_plot		();
+		setScatterPlotRoi			(minI1, maxI1, minI2, maxI2);
+	}
+
+	// Wraps the processors of the current slice, the translation of channel 2 onto channel 1 being estimated (once per picture pair
+	// and slice) when a channel alignment is chosen
+	static void updateChannels()
+	{
+		currentSliceData		= getSliceData(resultImageSlicePosition);
+		channel1				= currentSliceData.channel1;
+		channel2				= currentSliceData.channel2;
+	}
+
+	// Cached data of a slice (created upon the first request), the least recently used slices being dropped from the cache
+	static SliceData getSliceData(int slice)
+	{
+		SliceData		d;
+		ImageProcessor	ip1, ip2;
+		double		[]	shift;
+
+		synchronized (sliceCache)
+		{
+			d					= sliceCache.get(slice);
+			if (d != null)
+				return d;
+		}
+		// Processors of their own (rather than the ones of the pictures, whose pixels are swapped upon each slice change)
+		ip1						= image1.getStackSize() > 1 ? image1.getStack().getProcessor(slice) : image1.getProcessor();
+		ip2						= image2.getStackSize() > 1 ? image2.getStack().getProcessor(slice) : image2.getProcessor();
+		ip1						.setCalibrationTable(image1.getProcessor().getCalibrationTable());
+		ip2						.setCalibrationTable(image2.getProcessor().getCalibrationTable());
+		shift					= getChannelShift(ip1, ip2, slice);
+		d						= new SliceData(new ChannelView(ip1, 0, 0), new ChannelView(ip2, shift[0], shift[1]));
+		synchronized (sliceCache)
+		{
+			if (sliceCache.containsKey(slice))
+				return sliceCache.get(slice);
+			sliceCache			.put(slice, d);
+		}
+		return d;
+	}
+
+	// To be called when the channels themselves change (new pictures or channel alignment), the slices being then wrapped again
+	static void clearSliceCache()
+	{
+		prefetchGeneration		.incrementAndGet();
+		synchronized (sliceCache)
+		{
+			sliceCache			.clear();
+		}
+	}
+
+	// Translation of channel 2 onto channel 1 for the given slice (none when no channel alignment is chosen)
+	static double[] getChannelShift(ImageProcessor ip1, ImageProcessor ip2, int slice)
+	{
+		return getChannelShift(ip1, ip2, image1.getID() + ":" + image2.getID() + ":" + slice);
+	}
+
+	// Same for any pair of processors, the shift being cached under the given key (picture pair and stack index). It is estimated
+	// outside of any lock, two threads asking for the same key at once merely both computing it
+	static double[] getChannelShift(ImageProcessor ip1, ImageProcessor ip2, String key)
+	{
+		double	[]	shift;
+
+		if (channelAlignmentIndex != 1)
+			return new double[2];
+		shift					= channelShifts.get(key);
+		if (shift == null)
+		{
+			shift				= getPhaseCorrelationShift(ip1, ip2);
+			channelShifts		.putIfAbsent(key, shift);
+		}
+		return shift;
+	}
+
+	// Translation {dx, dy} such that ip2(x + dx, y + dy) matches ip1(x, y), from the peak of the inverse transform of the normalized
+	// cross-power spectrum of both (mean subtracted and Hann windowed) pictures, refined to sub-pixel from the neighbours of the peak
+	static double[] getPhaseCorrelationShift(ImageProcessor ip1, ImageProcessor ip2)
+	{
+		int				width = 1, height = 1, px, py, k, peak = 0;
+		double			mean1 = 0, mean2 = 0, window, re, im, norm;
+		double		[]	shift			= new double[2];
+
+		while (width < w1)
+			width						<<= 1;
+		while (height < h1)
+			height						<<= 1;
+
+		double		[]	re1				= new double[width * height];
+		double		[]	im1				= new double[width * height];
+		double		[]	re2				= new double[width * height];
+		double		[]	im2				= new double[width * height];
+
+		for (py = 0; py < h1; py++)
+			for (px = 0; px < w1; px++)
+			{
+				mean1					+= ip1.getPixelValue(px, py);
+				mean2					+= ip2.getPixelValue(px, py);
+			}
+		mean1							/= (double) w1 * h1;
+		mean2							/= (double) w1 * h1;
+		for (py = 0; py < h1; py++)
+			for (px = 0; px < w1; px++)
+			{
+				window					= (0.5 - 0.5 * Math.cos(2 * Math.PI * (px + 0.5) / w1)) * (0.5 - 0.5 * Math.cos(2 * Math.PI * (py + 0.5) / h1));
+				re1[py * width + px]	= (ip1.getPixelValue(px, py) - mean1) * window;
+				re2[py * width + px]	= (ip2.getPixelValue(px, py) - mean2) * window;
+			}
+		fft2D							(re1, im1, width, height, false);
+		fft2D							(re2, im2, width, height, false);
+
+		// F2 conj(F1) / |F2 conj(F1)| whose inverse transform peaks at the translation of picture 2 relative to picture 1
+		for (k = 0; k < re1.length; k++)
+		{
+			re							= re2[k] * re1[k] + im2[k] * im1[k];
+			im							= im2[k] * re1[k] - re2[k] * im1[k];
+			norm						= Math.sqrt(re * re + im * im);
+			re1[k]						= norm > 0 ? re / norm : 0;
+			im1[k]						= norm > 0 ? im / norm : 0;
+		}
+		fft2D							(re1, im1, width, height, true);
+
+		for (k = 1; k < re1.length; k++)
+			if (re1[k] > re1[peak])
+				peak					= k;
+		px								= peak % width;
+		py								= peak / width;
+		shift[0]						= (px > width  / 2 ? px - width  : px) + getPeakOffset(re1[py * width + (px + width - 1) % width], re1[peak], re1[py * width + (px + 1) % width]);
+		shift[1]						= (py > height / 2 ? py - height : py) + getPeakOffset(re1[((py + height - 1) % height) * width + px], re1[peak], re1[((py + 1) % height) * width + px]);
+		return shift;
+	}
+
+	// Sub-pixel offset of a phase correlation peak from its two neighbours, the peak of a sub-pixel translation being a sampled
+	// Dirichlet kernel whose ratio between the highest neighbour and the peak gives the offset (Foroosh et al., 2002)
+	static double getPeakOffset(double left, double center, double right)
+	{
+		if (right > left && right > 0)
+			return right / (right + center);
+		if (left > 0)
+			return -left / (left + center);
+		return 0;
+	}
+
+	// 2D FFT as 1D transforms of the rows then of the columns
+	static void fft2D(double[] re, double[] im, int width, int height, boolean inverse)
+	{
+		double	[]	lineRe, lineIm;
+		double	[]	columnRe	= new double[height];
+		double	[]	columnIm	= new double[height];
+		int			px, py;
+
+		for (py = 0; py < height; py++)
+		{
+			lineRe				= Arrays.copyOfRange(re, py * width, (py + 1) * width);
+			lineIm				= Arrays.copyOfRange(im, py * width, (py + 1) * width);
+			fft					(lineRe, lineIm, inverse);
+			System.arraycopy	(lineRe, 0, re, py * width, width);
+			System.arraycopy	(lineIm, 0, im, py * width, width);
+		}
+		for (px = 0; px < width; px++)
+		{
+			for (py = 0; py < height; py++)
+			{
+				columnRe[py]	= re[py * width + px];
+				columnIm[py]	= im[py * width + px];
+			}
+			fft					(columnRe, columnIm, inverse);
+			for (py = 0; py < height; py++)
+			{
+				re[py * width + px]	= columnRe[py];
+				im[py * width + px]	= columnIm[py];
+			}
+		}
+	}
+
+	static double[] getBinIndicesKey()
+	{
+		return new double[] { scatterPlotMin1, scatterPlotMax1, scatterPlotMin2, scatterPlotMax2, scatterPlotSize, scatterAxisIndex };
+	}
+
+	// Per pixel bin indices of the current slice, only recomputed when the slice or the scatterPlot limits or size change
+	static int[] getBinIndices()
+	{
+		return getBinIndices(currentSliceData, getBinIndicesKey());
+	}
+
+	static int[] getBinIndices(SliceData d, double[] key)
+	{
+		ScatterAxis	[]	axes		= getScatterAxes(key);
+		int				px, py, p;
+		int			[]	bins;
+
+		synchronized (d)
+		{
+			if (d.binIndices != null && Arrays.equals(key, d.binIndicesKey))
+				return d.binIndices;
+
+			bins				= new int[w1 * h1];
+			for (py = 0, p = 0; py < h1; py++)
+				for (px = 0; px < w1; px++, p++)
+					bins[p]		= getBinIndex(d.channel1.getValue(px, py), d.channel2.getValue(px, py), axes);
+			d.binIndices		= bins;
+			d.binIndicesKey		= key;
+			return bins;
+		}
+	}
+
+	// Scatterplot histogram of the pixels within spans, copied from the slice cache when it was already computed for these spans and bins
+	static void getSliceHistogram(SliceData d, RoiSpans spans, int[] bins, int[] histogram)
+	{
+		synchronized (d)
+		{
+			if (d.histogram != null && d.histogramSpans == spans && d.histogramBins == bins && d.histogram.length == histogram.length)
+			{
+				System.arraycopy(d.histogram, 0, histogram, 0, histogram.length);
+				return;
+			}
+		}
+		Arrays.fill				(histogram, 0);
+		spans					.addDifference(null, bins, histogram, 1);
+		synchronized (d)
+		{
+			d.histogram			= histogram.clone();
+			d.histogramSpans	= spans;
+			d.histogramBins		= bins;
+		}
+	}
+
+	// Bins of the slice when already computed for the key, null otherwise
+	static int[] getCachedBinIndices(SliceData d, double[] key)
+	{
+		synchronized (d)
+		{
+			return d.binIndices != null && Arrays.equals(key, d.binIndicesKey) ? d.binIndices : null;
+		}
+	}
+
+	// Scatterplot histogram of the pixels within spans aggregated from the histogram pyramid of the slice (built by one pass over these
+	// pixels when missing) without computing the bins of the pixels, false when the bins of the key split some cells of the pyramid
+	static boolean getPyramidHistogram(SliceData d, RoiSpans spans, double[] key, int[] histogram)
+	{
+		ScatterAxis		[]	axes	= getScatterAxes(key);
+		HistogramPyramid	pyramid;
+
+		synchronized (d)
 		{
-			// There is no ROI within the result image, thus I make the analysis within the whole picture
-			for (y = 0; y < h1; y++)
+			if (d.pyramid == null || d.pyramidSpans != spans)
 			{
-				for (x = 0; x < w1; x++)
+				d.pyramid			= new HistogramPyramid(d.channel1, d.channel2, spans, ScatterAxis.isInteger(image1), ScatterAxis.isInteger(image2));
+				d.pyramidSpans		= spans;
+			}
+			pyramid					= d.pyramid;
+		}
+		return pyramid.getHistogram(axes, histogram);
+	}
+
+	// Key of the exact comparison of a slice: scatterPlot ROI (gate) and Manders thresholds, the spans and the bins being compared by identity
+	static String getComparisonKey()
+	{
+		return getRoiSignature(scatterPlotRoi) + ":" + minI1 + "," + maxI1 + "," + minI2 + "," + maxI2;
+	}
+
+	// Exact comparison of a slice (moments, mask and its selection) for the given gate, spans and bins, taken from the slice cache
+	// when already computed for them (false being then returned)
+	static boolean compareSlice(SliceData d, String key, boolean[] gate, RoiSpans spans, int[] bins, double[] thresholds)
+	{
+		ColocalizationMoments	moments;
+		ByteProcessor			mask;
+		ScatterAxis			[]	axes;
+		double				[]	binKey;
+		byte				[]	pixels;
+		int						px, py, k, p, b, size;
+
+		synchronized (d)
+		{
+			if (d.moments != null && key.equals(d.comparisonKey) && d.comparisonSpans == spans && d.comparisonBins == bins)
+				return false;
+		}
+		moments					= new ColocalizationMoments(thresholds[0], thresholds[1], thresholds[2], thresholds[3]);
+		pixels					= new byte[w1 * h1];
+		size					= (int) Math.round(Math.sqrt(gate.length)) - 1;
+		synchronized (d)
+		{
+			binKey				= d.binIndicesKey;
+		}
+		axes					= getScatterAxes(binKey);
+
+		// The pixels outside of the ROI (if any) are left unselected, the spans covering the whole picture when there is no ROI
+		Arrays.fill				(pixels, (byte) 255);
+		for (py = 0; py < h1; py++)
+			for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+				for (px = spans.xStart[k]; px < spans.xEnd[k]; px++)
 				{
-					if(image1Processor.getPixelValue(x, y) > scatterPlotMin1 && image2Processor.getPixelValue(x, y) > scatterPlotMin2)
+					p			= py * w1 + px;
+					moments.addIntensities(d.channel1.getValue(px, py), d.channel2.getValue(px, py));
+					b			= bins[p] & ~BELOW_MIN;
+					if (bins[p] >= 0 && gate[b])
 					{
-						z1				=                   (int) ((    image1Processor.getPixelValue(x, y) - scatterPlotMin1) * scatterPlotSize / (scatterPlotMax1 - scatterPlotMin1));
-						z2				= scatterPlotSize - (int) ((    image2Processor.getPixelValue(x, y) - scatterPlotMin2) * scatterPlotSize / (scatterPlotMax2 - scatterPlotMin2));
-						count			=                   (int)  scatterPlotProcessor.getPixelValue(z1 + xOffset, z2 + yOffset);
-						count++;
-						scatterPlotProcessor.putPixelValue(z1 + xOffset, z2 + yOffset, count);
+						pixels[p]	= (byte) 0;
+						moments.addGated(axes[0].coordinates[b % (size + 1)], axes[1].coordinates[b / (size + 1)]);
 					}
 				}
-			}
+
+		mask					= new ByteProcessor(w1, h1, pixels);
+		mask					.setBinaryThreshold();
+		synchronized (d)
+		{
+			d.moments			= moments;
+			d.mask				= pixels;
+			d.maskRoi			= new ThresholdToSelection().convert(mask);
+			d.comparisonKey		= key;
+			d.comparisonSpans	= spans;
+			d.comparisonBins	= bins;
 		}
-		else
-		{	// There is no ROI within the result image, thus I make the analysis only within the ROI elements
-			pointsInsideRoi = resultImageRoi.getContainedPoints();
+		return true;
+	}
+
+	// Precomputes (in the background) the bins, the histogram and the exact comparison of the slices around the current one for the
+	// current scatterPlot limits, gate and result picture ROI; a newer request cancels the pending ones
+	static void prefetchSlices()
+	{
+		final int				generation	= prefetchGeneration.incrementAndGet();
+		final int				current		= resultImageSlicePosition;
+		final double		[]	key			= getBinIndicesKey();
+		final double		[]	thresholds	= {minI1, maxI1, minI2, maxI2};
+		final boolean		[]	gate		= rasterizeGate(scatterPlotRoi);
+		final RoiSpans			spans		= getResultImageSpans();
+		final String			comparisonKey	= getComparisonKey();
+
+		if (resultImageSliceNumbers < 2)
+			return;
+		prefetcher.execute(new Runnable()
+		{
+			public void run()
+			{
+				int			distance, slice;
+				SliceData	d;
+				int		[]	bins;
+
+				for (distance = 1; distance <= prefetchRadius; distance++)
+					for (slice = current - distance; slice <= current + distance; slice += 2 * distance)
+					{
+						if (slice < 1 || slice > resultImageSliceNumbers || generation != prefetchGeneration.get())
+							continue;
+						d			= getSliceData(slice);
+						bins		= getBinIndices(d, key);
+						getSliceHistogram(d, spans, bins, new int[((int) key[4] + 1) * ((int) key[4] + 1)]);
+						compareSlice(d, comparisonKey, gate, spans, bins, thresholds);
+					}
+			}
+		});
+	}
+
+	// Stack wide intensity limits of both channels, computed in the background; they replace the limits of the first slice, unless
+	// the graph limits, the gate limits or the scatterPlot ROI have been changed (by the user or a macro) in the meantime
+	static void computeStackLimits()
+	{
+		final double		[]	initial		= {scatterPlotMin1, scatterPlotMax1, scatterPlotMin2, scatterPlotMax2, minI1, maxI1, minI2, maxI2};
+		final String			initialRoi	= getRoiSignature(scatterPlot.getRoi());
 
-			for (i = 0; i != pointsInsideRoi.length; i++)
+		if (resultImageSliceNumbers < 2)
+			return;
+		prefetcher.execute(new Runnable()
+		{
+			public void run()
 			{
-				if(pointsInsideRoi[i].x >= 0 && pointsInsideRoi[i].x < w1 && pointsInsideRoi[i].y >= 0 && pointsInsideRoi[i].y < h1)
+				final StackStatistics	stats1	= new StackStatistics(image1);
+				final StackStatistics	stats2	= new StackStatistics(image2);
+
+				EventQueue.invokeLater(new Runnable()
 				{
-					if(image1Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y) > scatterPlotMin1 && image2Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y) > scatterPlotMin2)
+					public void run()
 					{
-						z1				=                   (int) (((   image1Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y)) - scatterPlotMin1) * scatterPlotSize / (scatterPlotMax1 - scatterPlotMin1));
-						z2				= scatterPlotSize - (int) (((   image2Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y)) - scatterPlotMin2) * scatterPlotSize / (scatterPlotMax2 - scatterPlotMin2));
-						count			=                   (int)  scatterPlotProcessor.getPixelValue(z1 + xOffset, z2 + yOffset);
-						count++;
-						scatterPlotProcessor.putPixelValue(z1 + xOffset, z2 + yOffset, count);
+						min1					= stats1.min;
+						max1					= stats1.max;
+						min2					= stats2.min;
+						max2					= stats2.max;
+						if (!Arrays.equals(initial, new double[] {scatterPlotMin1, scatterPlotMax1, scatterPlotMin2, scatterPlotMax2, minI1, maxI1, minI2, maxI2}) || !initialRoi.equals(getRoiSignature(scatterPlot.getRoi())))
+							return;
+						scatterPlotMin1			= minI1	= min1;
+						scatterPlotMax1			= maxI1	= max1;
+						scatterPlotMin2			= minI2	= min2;
+						scatterPlotMax2			= maxI2	= max2;
+						scatterPlotProcessor	.setColor(Color.black);
+						scatterPlotProcessor	.resetRoi();
+						scatterPlotProcessor	.fill();
+						setScatterPlotGraphLimits	();
+						build_plot_for_scatter_plot	();
+						rebuild_scatter_plot		();
+						setScatterPlotRoi			(minI1, maxI1, minI2, maxI2);
+						comparison					(false, false);
 					}
-				}
+				});
 			}
-		}
-//		scatterPlot.updateAndDraw();
-		scatterPlot.draw();
+		});
 	}
 
 	public static String analyze(boolean _write_results, boolean _set_roi, String separator)
@@ -634,542 +1278,4192 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		return analyzeByMacro	(_write_results, _set_roi, _outputIDs, ";");
 	}
 
-	// call("Colocalization_Finder.getResultsLinesCount");
-	public static String getResultsLinesCount()
+	// call("Colocalization_Finder.analyzeRoiManagerByMacro", _write_results);
+	public static String analyzeRoiManagerByMacro(String _write_results)
 	{
-		ResultsWindow = (TextWindow) WindowManager.getWindow(ResultsTitle);
-		if(ResultsWindow == null)
-			return String.valueOf(0);
-		return String.valueOf(ResultsWindow.getTextPanel().getLineCount());
+		return analyzeRoiManager(Boolean.valueOf(_write_results), ";");
 	}
 
-	public static String analyzeByMacro(String _write_results, String _set_roi, String _outputIDs, String separator)
+	// Analyzes every RoiManager ROI of the result image against the current scatterPlot ROI in a single pixel pass, one results row being
+	// output per ROI. The ROIs are rasterized into a label image, a pixel covered by several ROIs being counted in the last one only.
+	public static String analyzeRoiManager(boolean _write_results, String separator)
 	{
-		int			i, j;
-		int		[]	outputIDs		, outputIDsSub;
-		String	[]	outputIDSplitted, outputIDSplittedSub, outputIDSplittedFull;
+		int			j, k, label, px, py, binIndex, rowStart, rowEnd;
+		int			gateWidth;
+		String		row;
+		int		[]	labels, bins;
+		ScatterAxis	[]	axes;
+		boolean	[]	gate;
+		Roi		[]	rois;
+		RoiSpans					spans;
+		ColocalizationMoments	[]	moments;
+		StringBuilder				output	= new StringBuilder();
+
+		rm					= RoiManager.getInstance();
+		if (rm == null || rm.getCount() == 0)
+			return "";
 
-		outputIDSplitted	= Tools.split(_outputIDs, ",");
-		for(i = 0; i != outputIDSplitted.length; i++)
+		if(setScatterPlotRoiLimits())
+			setScatterPlotRoi(minI1, maxI1, minI2, maxI2);
+		gate				= rasterizeGate(scatterPlot.getRoi());
+		gateWidth			= scatterPlotSize + 1;
+		bins				= getBinIndices();
+		axes				= getScatterAxes();
+
+		rois				= rm.getRoisAsArray();
+		labels				= new int[w1 * h1];
+		for (k = 0; k != rois.length; k++)
 		{
-			if(outputIDSplitted[i].indexOf("-") != -1)
+			if (!isAnalysisRoi(rois[k]))
+				continue;
+			spans			= RoiSpans.fromRoi(rois[k], w1, h1);
+			for (py = 0; py < h1; py++)
+				for (j = spans.rowFirst[py]; j < spans.rowFirst[py + 1]; j++)
+					Arrays.fill(labels, py * w1 + spans.xStart[j], py * w1 + spans.xEnd[j], k + 1);
+		}
+
+		moments				= new ColocalizationMoments[rois.length + 1];
+		for (k = 0; k != moments.length; k++)
+			moments[k]		= new ColocalizationMoments(minI1, maxI1, minI2, maxI2);
+
+		for (py = 0; py < h1; py++)
+		{
+			rowStart		= py * w1;
+			rowEnd			= rowStart + w1;
+			for (j = rowStart, px = 0; j < rowEnd; j++, px++)
 			{
-				outputIDSplittedSub		= Tools.split(outputIDSplitted[i], "-");
-				outputIDsSub			= new int[2];
-				outputIDsSub[0]			= Integer.valueOf(outputIDSplittedSub[0]);
-				outputIDsSub[1]			= Integer.valueOf(outputIDSplittedSub[1]);
-				Arrays.sort				(outputIDsSub);
-				for(j = i; j != outputIDSplitted.length - 1; j++)
-					outputIDSplitted[j] = outputIDSplitted[j + 1];
-				outputIDSplitted[outputIDSplitted.length - 1] = String.valueOf(outputIDsSub[0]);
-				outputIDSplittedSub		= new String[outputIDsSub[1] - outputIDsSub[0]];
-				for(j = 0; j != outputIDSplittedSub.length; j++)
-					outputIDSplittedSub[j] = String.valueOf(outputIDsSub[0] + 1 + j);
-				outputIDSplittedFull	= Arrays.copyOf(outputIDSplitted, outputIDSplitted.length + outputIDSplittedSub.length);
-				System.arraycopy		(outputIDSplittedSub, 0, outputIDSplittedFull, outputIDSplitted.length, outputIDSplittedSub.length);
-				outputIDSplitted		= outputIDSplittedFull;
-				i--;
+				label		= labels[j];
+				if (label == 0)
+					continue;
+				moments[label].addIntensities(channel1.getValue(px, py), channel2.getValue(px, py));
+				binIndex	= bins[j] & ~BELOW_MIN;
+				if (bins[j] >= 0 && gate[binIndex])
+					moments[label].addGated(axes[0].coordinates[binIndex % gateWidth], axes[1].coordinates[binIndex / gateWidth]);
 			}
 		}
-		outputIDs			= new int[outputIDSplitted.length];
-		for(i = 0; i != outputIDSplitted.length; i++)
-			outputIDs[i] = Integer.valueOf(outputIDSplitted[i]);
 
-		return analyze(Boolean.valueOf(_write_results), Boolean.valueOf(_set_roi), outputIDs, separator);
+		if (_write_results)
+			ResultsWindow	= getResultsWindow();
+		for (k = 0; k != rois.length; k++)
+		{
+			if (!isAnalysisRoi(rois[k]))
+				continue;
+			row				= getResultsAsString(new ColocalizationMetrics(moments[k + 1], 1, false), resultImage.getImageStack().getSliceLabel(1), resultImage.getImageStack().getSliceLabel(2), rm.getName(k), separator);
+			if (_write_results)
+				ResultsWindow.getTextPanel().appendWithoutUpdate(row.replace(separator, "\t"));
+			if (output.length() > 0)
+				output.append('\n');
+			output.append(row);
+		}
+		if (_write_results)
+			ResultsWindow.getTextPanel().updateDisplay();
+
+		return output.toString();
 	}
 
-	// call("Colocalization_Finder.setScatterPlotRoi", 0, 500, 100, 200);
-	public static void setScatterPlotRoi(String _minI1, String _maxI1, String _minI2, String _maxI2)
+	// call("Colocalization_Finder.analyzeGatesByMacro", _write_results);
+	public static String analyzeGatesByMacro(String _write_results)
 	{
-		try								{	minI1			= Double.valueOf(_minI1)			;}
-		catch(NumberFormatException e)	{	minI1			= scatterPlotMin1					;}
-
-		try								{	maxI1			= Double.valueOf(_maxI1)			;}
-		catch(NumberFormatException e)	{	maxI1			= scatterPlotMax1					;}
-
-		try								{	minI2			= Double.valueOf(_minI2)			;}
-		catch(NumberFormatException e)	{	minI2			= scatterPlotMin2					;}
-
-		try								{	maxI2			= Double.valueOf(_maxI2)			;}
-		catch(NumberFormatException e)	{	maxI2			= scatterPlotMax2					;}
-
-		setScatterPlotRoi(minI1, maxI1, minI2, maxI2);
+		return analyzeGates(Boolean.valueOf(_write_results), ";");
 	}
 
-	// call("Colocalization_Finder.setScatterPlotLimits", 0, 500, 100, 200);
-	public static void setScatterPlotLimits(String _scatterPlotMin1, String _scatterPlotMax1, String _scatterPlotMin2, String _scatterPlotMax2)
+	// Evaluates all the scatterPlot ROIs stored within the RoiManager (up to 32) in a single pixel pass: the gates are rasterized into a
+	// table giving for each scatterPlot bin the bit set of the gates containing it. One results row is output per gate (followed by
+	// the gate name) and the masks of all the gates are overlaid with their colors on the result image.
+	public static String analyzeGates(boolean _write_results, String separator)
 	{
-		try								{	scatterPlotMin1	= Double.valueOf(_scatterPlotMin1)	;}
-		catch(NumberFormatException e)	{	scatterPlotMin1	= min1								;}
-
-		try								{	scatterPlotMax1	= Double.valueOf(_scatterPlotMax1)	;}
-		catch(NumberFormatException e)	{	scatterPlotMax1	= max1								;}
+		int				g, k, nGates, px, py, b1, b2, bits, binIndex, gateWidth;
+		double			v1, v2;
+		double		[]	limits;
+		int			[]	table, bins;
+		boolean		[]	gateTable;
+		byte		[][]	gateMasks;
+		String			row, roiName;
+		Roi				roi;
+		RoiSpans		spans;
+		Roi			[]	rois;
+		Roi			[]	gates	= new Roi[32];
+		String		[]	names	= new String[32];
+		ScatterAxis	[]	axes;
+		ColocalizationMoments	[]	moments;
+		StringBuilder				output	= new StringBuilder();
+
+		rm					= RoiManager.getInstance();
+		if (rm == null)
+			return "";
+
+		rois				= rm.getRoisAsArray();
+		nGates				= 0;
+		for (k = 0; k != rois.length && nGates < gates.length; k++)
+		{
+			if (isScatterPlotGate(rois[k]) && rois[k].isArea())
+			{
+				gates[nGates]	= rois[k];
+				names[nGates]	= rm.getName(k);
+				nGates++;
+			}
+		}
+		if (nGates == 0)
+			return "";
+
+		gateWidth			= scatterPlotSize + 1;
+		bins				= getBinIndices();
+		axes				= getScatterAxes();
+		table				= new int[gateWidth * gateWidth];
+		moments				= new ColocalizationMoments[nGates];
+		gateMasks			= new byte[nGates][];
+		for (g = 0; g != nGates; g++)
+		{
+			gateTable		= rasterizeGate(gates[g]);
+			for (k = 0; k != table.length; k++)
+				if (gateTable[k])
+					table[k] |= 1 << g;
+			limits			= getGateLimits(gates[g].getBounds());
+			moments[g]		= new ColocalizationMoments(limits[0], limits[1], limits[2], limits[3]);
+			gateMasks[g]	= new byte[w1 * h1];
+			Arrays.fill		(gateMasks[g], (byte) 255);
+		}
+
+		roi					= resultImage.getRoi();
+		if (roi != null && (roi.getBounds().width == 0 || roi.getBounds().height == 0 || !roi.isArea()))
+			roi				= null;
+		spans				= RoiSpans.fromRoi(roi, w1, h1);
+
+		for (py = 0; py < h1; py++)
+		{
+			for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+			{
+				for (px = spans.xStart[k]; px < spans.xEnd[k]; px++)
+				{
+					v1			= channel1.getValue(px, py);
+					v2			= channel2.getValue(px, py);
+					binIndex	= bins[py * w1 + px] & ~BELOW_MIN;
+					bits		= bins[py * w1 + px] >= 0 ? table[binIndex] : 0;
+					b1			= binIndex % gateWidth;
+					b2			= binIndex / gateWidth;
+					for (g = 0; g != nGates; g++)
+					{
+						moments[g].addIntensities(v1, v2);
+						if ((bits & (1 << g)) != 0)
+						{
+							moments[g].addGated(axes[0].coordinates[b1], axes[1].coordinates[b2]);
+							gateMasks[g][py * w1 + px] = (byte) 0;
+						}
+					}
+				}
+			}
+		}
+
+		// The combined overlay keeps the current colocalization mask as first element and replaces the previous gate masks
+		resultImageOverlay	= resultImage.getOverlay();
+		if (resultImageOverlay == null)
+			resultImageOverlay	= new Overlay();
+		for (k = resultImageOverlay.size() - 1; k >= 0; k--)
+			if (resultImageOverlay.get(k) != null && resultImageOverlay.get(k).getName() != null && resultImageOverlay.get(k).getName().startsWith("Gate mask "))
+				resultImageOverlay.remove(k);
+		ts					= new ThresholdToSelection();
+		for (g = 0; g != nGates; g++)
+		{
+			colocMask		= new ByteProcessor(w1, h1, gateMasks[g]);
+			colocMask		.setBinaryThreshold();
+			Roi gateMaskRoi	= ts.convert(colocMask);
+			if (gateMaskRoi == null)
+				continue;
+			gateMaskRoi		.setName		("Gate mask " + names[g]);
+			gateMaskRoi		.setFillColor	(gates[g].getStrokeColor() != null ? gates[g].getStrokeColor() : colors[g % colors.length].color);
+			resultImageOverlay.add(gateMaskRoi);
+		}
+		resultImage			.setOverlay(resultImageOverlay);
+
+		roiName				= roi == null || roi.getName() == null ? "-" : roi.getName();
+		if (_write_results)
+			ResultsWindow	= getResultsWindow();
+		for (g = 0; g != nGates; g++)
+		{
+			row				= getResultsAsString(new ColocalizationMetrics(moments[g], 1, false), resultImage.getImageStack().getSliceLabel(1), resultImage.getImageStack().getSliceLabel(2), roiName, separator) + separator + names[g];
+			if (_write_results)
+				ResultsWindow.getTextPanel().appendWithoutUpdate(row.replace(separator, "\t"));
+			if (output.length() > 0)
+				output.append('\n');
+			output.append(row);
+		}
+		if (_write_results)
+			ResultsWindow.getTextPanel().updateDisplay();
+
+		return output.toString();
+	}
+
+	// call("Colocalization_Finder.analyzeTargetsByMacro", _write_results, _targets);
+	// _targets: comma separated titles of the target pictures, all the open pictures of the same size being taken when empty
+	public static String analyzeTargetsByMacro(String _write_results, String _targets)
+	{
+		return analyzeTargets(Boolean.valueOf(_write_results), _targets.trim().length() == 0 ? null : _targets.split(","), ";");
+	}
+
+	// One versus many: picture 1 (the reference) is compared with each target picture through the current scatterPlot ROI, thresholds,
+	// scatterPlot limits and result image ROI, the targets being read and analyzed in parallel (one per thread) against the reference
+	// values and bins computed once, one results row being output per target (named in the picture2_name column)
+	public static String analyzeTargets(boolean _write_results, String[] targetTitles, String separator)
+	{
+		final ReferenceChannel			ref;
+		final ImagePlus				[]	targets;
+		final boolean				[]	gate;
+		final ColocalizationMoments	[]	moments;
+		final int						slice		= resultImageSlicePosition;
+		String							row, roiName;
+		StringBuilder					output		= new StringBuilder();
+		int								k;
+
+		targets					= getTargets(targetTitles);
+		if (targets.length == 0)
+			return "";
+		if(setScatterPlotRoiLimits())
+			setScatterPlotRoi	(minI1, maxI1, minI2, maxI2);
+		gate					= rasterizeGate(scatterPlot.getRoi());
+		ref						= getReferenceChannel();
+		moments					= new ColocalizationMoments[targets.length];
+
+		new ParallelLoop()
+		{
+			void run(int index)
+			{
+				ImagePlus				target	= targets[index];
+				ImageProcessor			ip		= target.getImageStack().getProcessor(Math.min(slice, target.getImageStackSize()));
+				ColocalizationMoments	mo		= new ColocalizationMoments(ref.thresholds[0], ref.thresholds[1], ref.thresholds[2], ref.thresholds[3]);
+				int						size	= ref.axes[0].size, px, py, k, p, b1, b2;
+				double				[]	shift;
+				ChannelView				view;
+				float					v2;
+
+				ip.setCalibrationTable	(target.getCalibration().getCTable());
+				shift					= getChannelShift(ref.ip, ip, image1.getID() + ":" + target.getID() + ":" + slice);
+				view					= new ChannelView(ip, shift[0], shift[1]);
+				for (py = 0; py < h1; py++)
+					for (k = ref.spans.rowFirst[py]; k < ref.spans.rowFirst[py + 1]; k++)
+						for (px = ref.spans.xStart[k], p = py * w1 + px; px < ref.spans.xEnd[k]; px++, p++)
+						{
+							v2			= view.getValue(px, py);
+							mo.addIntensities(ref.values[p], v2);
+							b1			= ref.bins[p];
+							b2			= ref.axes[1].getBin(v2);
+							if (b1 >= 0 && b2 >= 0 && gate[b2 * (size + 1) + b1])
+								mo.addGated(ref.axes[0].coordinates[b1], ref.axes[1].coordinates[b2]);
+						}
+				moments[index]			= mo;
+			}
+		}.start(targets.length);
+
+		roiName					= resultImage.getRoi() == null || resultImage.getRoi().getName() == null ? "-" : resultImage.getRoi().getName();
+		if (_write_results)
+			ResultsWindow		= getResultsWindow();
+		for (k = 0; k != targets.length; k++)
+		{
+			row					= getResultsAsString(new ColocalizationMetrics(moments[k], 1, false), resultImage.getImageStack().getSliceLabel(1), targets[k].getTitle(), roiName, separator);
+			if (_write_results)
+				ResultsWindow.getTextPanel().appendWithoutUpdate(row.replace(separator, "\t"));
+			if (output.length() > 0)
+				output.append('\n');
+			output.append(row);
+		}
+		if (_write_results)
+			ResultsWindow.getTextPanel().updateDisplay();
+
+		return output.toString();
+	}
+
+	// Target pictures: the given titles, or all the open pictures of the size of picture 1 but both analyzed pictures, the plugin
+	// windows, the plots and the pictures computed by the plugin (maps, counts)
+	static ImagePlus[] getTargets(String[] targetTitles)
+	{
+		ArrayList<ImagePlus>	targets		= new ArrayList<ImagePlus>();
+		int					[]	ids			= WindowManager.getIDList();
+		ImagePlus				imp;
+
+		if (targetTitles != null)
+		{
+			for (String targetTitle : targetTitles)
+			{
+				imp							= WindowManager.getImage(targetTitle.trim());
+				if (imp == null || imp.getWidth() != w1 || imp.getHeight() != h1)
+					IJ.log					(title + ": no picture \"" + targetTitle.trim() + "\" of " + w1 + "x" + h1 + " pixels");
+				else
+					targets.add				(imp);
+			}
+		}
+		else if (ids != null)
+		{
+			for (int id : ids)
+			{
+				imp							= WindowManager.getImage(id);
+				if (imp != null && imp != source1 && imp != source2 && imp != resultImage && imp != scatterPlot && !pluginOutputIDs.contains(id)
+					&& !(imp.getWindow() instanceof PlotWindow) && imp.getBitDepth() != 24 && imp.getWidth() == w1 && imp.getHeight() == h1)
+					targets.add				(imp);
+			}
+		}
+		return targets.toArray(new ImagePlus[targets.size()]);
+	}
+
+	// Shows a picture computed by the plugin, remembered so that it is never taken as a target of one versus many
+	static void showOutput(ImagePlus imp)
+	{
+		pluginOutputIDs			.add(imp.getID());
+		imp						.show();
+	}
+
+	// Values and bins of picture 1 for the current slice, scatterPlot limits and result image ROI, computed once for all the targets
+	// (and kept for the next call as long as they do not change)
+	static ReferenceChannel getReferenceChannel()
+	{
+		final double		[]	binKey		= getBinIndicesKey();
+		final ScatterAxis	[]	axes		= getScatterAxes(binKey);
+		final RoiSpans			spans		= getResultImageSpans();
+		final ChannelView		view		= channel1;
+		final float			[]	values;
+		final int			[]	bins;
+		String					key			= image1.getID() + ":" + resultImageSlicePosition + ":" + Arrays.toString(binKey);
+
+		if (referenceChannel != null && referenceChannel.spans == spans && key.equals(referenceChannel.key)
+			&& Arrays.equals(referenceChannel.thresholds, new double[] {minI1, maxI1, minI2, maxI2}))
+			return referenceChannel;
+
+		values					= new float[w1 * h1];
+		bins					= new int[w1 * h1];
+		new ParallelLoop()
+		{
+			void run(int row)
+			{
+				int		k, px, p;
+
+				for (k = spans.rowFirst[row]; k < spans.rowFirst[row + 1]; k++)
+					for (px = spans.xStart[k], p = row * w1 + px; px < spans.xEnd[k]; px++, p++)
+					{
+						values[p]	= view.getValue(px, row);
+						bins[p]		= axes[0].getBin(values[p]);
+					}
+			}
+		}.start(h1);
+		referenceChannel		= new ReferenceChannel(key, view.ip, values, bins, spans, axes, new double[] {minI1, maxI1, minI2, maxI2});
+		return referenceChannel;
+	}
+
+	// call("Colocalization_Finder.analyzeFilesByMacro", _write_results, _directory1, _directory2);
+	// _directory2: directory holding the channel 2 files, named as the channel 1 files of _directory1
+	public static String analyzeFilesByMacro(String _write_results, String _directory1, String _directory2)
+	{
+		return analyzeFiles(Boolean.valueOf(_write_results), _directory1, _directory2, ";");
+	}
+
+	// Reached from the key handler, hence from the event dispatch thread: the batch then runs on a thread of its own, so that the rows
+	// appended to the Results window and the progress bar are shown while it runs (the macro calls remaining synchronous)
+	static void analyzeFilesDialog()
+	{
+		final String	directory1, directory2;
+
+		if (batchBusy)
+			return;
+		directory1				= new DirectoryChooser("Channel 1 files").getDirectory();
+		if (directory1 == null)
+			return;
+		directory2				= new DirectoryChooser("Channel 2 files (same names)").getDirectory();
+		if (directory2 == null)
+			return;
+		if (!EventQueue.isDispatchThread())
+		{
+			analyzeFiles		(true, directory1, directory2, ";");
+			return;
+		}
+		batchBusy				= true;
+		new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					analyzeFiles(true, directory1, directory2, ";");
+				}
+				finally
+				{
+					EventQueue.invokeLater(new Runnable()
+					{
+						public void run()
+						{
+							batchBusy	= false;
+						}
+					});
+				}
+			}
+		}, "Colocalization Finder batch").start();
+	}
+
+	// call("Colocalization_Finder.setBatchPipelineByMacro", _readers, _queue_size);
+	public static void setBatchPipelineByMacro(String _readers, String _queue_size)
+	{
+		try								{	batchReaders	= Math.max(1, Integer.valueOf(_readers.trim()))		;}
+		catch(NumberFormatException e)	{}
+		try								{	batchQueueSize	= Math.max(1, Integer.valueOf(_queue_size.trim()))	;}
+		catch(NumberFormatException e)	{}
+	}
+
+	// call("Colocalization_Finder.getBatchStatistics");
+	public static String getBatchStatistics()
+	{
+		return batchStatistics;
+	}
+
+	// Batch of file pairs: each file of directory1 is compared with the file of the same name within directory2 through the current
+	// scatterPlot ROI, thresholds, scatterPlot limits and result image ROI, over all their pages, one results row being output per pair.
+	// Uncompressed 16-bit TIFF files are memory mapped and their pages read in place (see MappedTiff), the other ones being opened by
+	// the ImageJ Opener. The pairs go through a pipeline of three stages linked by queues of batchQueueSize pairs (a stage waiting
+	// while the next queue is full): batchReaders threads reading the pairs ahead, Prefs.getThreads() threads analyzing them and a
+	// single thread writing the rows in the order of the files, the throughput and queue depths of each stage being logged and kept
+	// for getBatchStatistics().
+	public static String analyzeFiles(final boolean _write_results, String directory1, String directory2, final String separator)
+	{
+		final File						dir1		= new File(directory1);
+		final File						dir2		= new File(directory2);
+		final ScatterAxis			[]	axes		= getScatterAxes(getBinIndicesKey());
+		final RoiSpans					spans		= getResultImageSpans();
+		final ArrayList<String>			names		= new ArrayList<String>();
+		final BlockingQueue<FilePair>	readQueue	= new ArrayBlockingQueue<FilePair>(Math.max(1, batchQueueSize));
+		final BlockingQueue<FilePair>	resultQueue	= new ArrayBlockingQueue<FilePair>(Math.max(1, batchQueueSize));
+		final AtomicInteger				next		= new AtomicInteger();
+		final PipelineStage				reading		= new PipelineStage("Reading"	, Math.max(1, batchReaders));
+		final PipelineStage				analysis	= new PipelineStage("Analysis"	, Math.max(1, Prefs.getThreads()));
+		final PipelineStage				writing		= new PipelineStage("Writing"	, 1);
+		final StringBuilder				output		= new StringBuilder();
+		final String					roiName;
+		final boolean				[]	gate;
+		final TextPanel					panel;
+		final long						start		= System.nanoTime();
+		Thread						[]	readers, workers;
+		Thread							writer;
+		String						[]	list		= dir1.list();
+		double							seconds;
+
+		if (list == null || !dir2.isDirectory())
+		{
+			IJ.log				(title + ": no directories \"" + directory1 + "\" and \"" + directory2 + "\"");
+			return "";
+		}
+		Arrays.sort				(list);
+		for (String name : list)
+			if (!name.startsWith(".") && new File(dir1, name).isFile())
+				names.add		(name);
+		if(setScatterPlotRoiLimits())
+			setScatterPlotRoi	(minI1, maxI1, minI2, maxI2);
+		gate					= rasterizeGate(scatterPlot.getRoi());
+		roiName					= resultImage.getRoi() == null || resultImage.getRoi().getName() == null ? "-" : resultImage.getRoi().getName();
+		panel					= _write_results ? (ResultsWindow = getResultsWindow()).getTextPanel() : null;
+
+		readers					= ThreadUtil.createThreadArray(reading.threads);
+		for (int t = 0; t < readers.length; t++)
+			readers[t]			= new Thread()
+			{
+				public void run()
+				{
+					for (int index = next.getAndIncrement(); index < names.size(); index = next.getAndIncrement())
+					{
+						long		begin	= System.nanoTime();
+						FilePair	pair	= readFilePair(index, new File(dir1, names.get(index)), new File(dir2, names.get(index)));
+
+						reading.addItem		(begin, pair.bytes);
+						reading.sampleQueue	(readQueue.size());
+						putUninterruptibly	(readQueue, pair);
+					}
+				}
+			};
+		workers					= ThreadUtil.createThreadArray(analysis.threads);
+		for (int t = 0; t < workers.length; t++)
+			workers[t]			= new Thread()
+			{
+				public void run()
+				{
+					for (FilePair pair = takeUninterruptibly(readQueue); pair != FilePair.END; pair = takeUninterruptibly(readQueue))
+					{
+						long		begin	= System.nanoTime();
+
+						try
+						{
+							if (pair.planes1 != null)
+							{
+								pair.moments= analyzeChannelPlanes(pair.planes1, pair.planes2, pair.file1.getPath() + ":" + pair.file2.getPath(), axes, gate, spans);
+								pair.pixels	= spans.pixelCount * Math.min(pair.planes1.length, pair.planes2.length);
+							}
+						}
+						catch (Throwable e)
+						{
+							pair.moments	= null;
+							IJ.log			(title + ": \"" + pair.file1.getName() + "\" not analyzed (" + e + ")");
+						}
+						pair.planes1		= pair.planes2 = null;
+						analysis.addItem	(begin, 0);
+						analysis.sampleQueue(resultQueue.size());
+						putUninterruptibly	(resultQueue, pair);
+					}
+				}
+			};
+		writer					= new Thread()
+		{
+			public void run()
+			{
+				HashMap<Integer, FilePair>	pending		= new HashMap<Integer, FilePair>();
+				long						display		= System.nanoTime();
+				FilePair					ready;
+				String						row;
+				int							expected	= 0;
+
+				for (FilePair pair = takeUninterruptibly(resultQueue); pair != FilePair.END; pair = takeUninterruptibly(resultQueue))
+				{
+					pending.put				(pair.index, pair);
+					while ((ready = pending.remove(expected)) != null)
+					{
+						long	begin		= System.nanoTime();
+
+						expected++;
+						try
+						{
+							if (ready.moments != null)
+							{
+								row			= getResultsAsString(new ColocalizationMetrics(ready.moments, 1, false, ready.pixels), ready.file1.getName(), ready.file2.getParentFile().getName() + File.separator + ready.file2.getName(), roiName, separator);
+								if (panel != null)
+									appendLater(panel, row.replace(separator, "\t"), false);
+								if (output.length() > 0)
+									output.append('\n');
+								output.append(row);
+							}
+						}
+						catch (Throwable e)
+						{
+							IJ.log			(title + ": \"" + ready.file1.getName() + "\" not written (" + e + ")");
+						}
+						if (panel != null && begin - display > 1000000000L)
+						{
+							appendLater		(panel, null, true);
+							display			= begin;
+						}
+						IJ.showProgress		(expected, names.size());
+						writing.addItem		(begin, 0);
+					}
+				}
+			}
+		};
+
+		for (Thread thread : readers)
+			thread.start		();
+		for (Thread thread : workers)
+			thread.start		();
+		writer.start			();
+		join					(readers);
+		for (int t = 0; t < workers.length; t++)
+			putUninterruptibly	(readQueue, FilePair.END);
+		join					(workers);
+		putUninterruptibly		(resultQueue, FilePair.END);
+		join					(new Thread[] {writer});
+		if (panel != null)
+			appendLater			(panel, null, true);
+
+		seconds					= (System.nanoTime() - start) * 1e-9;
+		batchStatistics			= "Batch of file pairs: " + names.size() + " pairs in " + IJ.d2s(seconds, 2) + " s\n"
+								+ reading	.getStatistics(seconds, "queue to the analysis"	, readQueue.remainingCapacity()		+ readQueue.size()) + "\n"
+								+ analysis	.getStatistics(seconds, "queue to the writing"	, resultQueue.remainingCapacity()	+ resultQueue.size()) + "\n"
+								+ writing	.getStatistics(seconds, null, 0);
+		IJ.log					(batchStatistics);
+
+		return output.toString();
+	}
+
+	// Pair of files read by the reading stage of the batch (the planes being left null when they cannot be analyzed)
+	static FilePair readFilePair(int index, File file1, File file2)
+	{
+		FilePair	pair		= new FilePair(index, file1, file2);
+
+		try
+		{
+			if (!file2.isFile())
+			{
+				IJ.log			(title + ": no file \"" + file2.getPath() + "\"");
+				return pair;
+			}
+			pair.planes1		= readChannelPlanes(file1.getPath());
+			pair.planes2		= readChannelPlanes(file2.getPath());
+		}
+		catch (Throwable e)
+		{
+			pair.planes1		= pair.planes2 = null;
+		}
+		if (pair.planes1 == null || pair.planes2 == null || pair.planes1.length == 0 || pair.planes2.length == 0 || pair.planes1[0].width != w1 || pair.planes1[0].height != h1 || pair.planes2[0].width != w1 || pair.planes2[0].height != h1)
+		{
+			IJ.log				(title + ": \"" + file1.getName() + "\" is not a pair of readable " + w1 + "x" + h1 + " pictures");
+			pair.planes1		= pair.planes2 = null;
+			return pair;
+		}
+		for (ChannelPlane plane : pair.planes1)
+			pair.bytes			+= plane.getByteCount();
+		for (ChannelPlane plane : pair.planes2)
+			pair.bytes			+= plane.getByteCount();
+		return pair;
+	}
+
+	// Appends a row to the Results window (and/or updates its display) from the event dispatch thread, on behalf of the batch writer
+	static void appendLater(final TextPanel panel, final String row, final boolean update)
+	{
+		EventQueue.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				if (row != null)
+					panel.appendWithoutUpdate(row);
+				if (update)
+					panel.updateDisplay();
+			}
+		});
+	}
+
+	// Queue operations of the batch stages, which are not meant to be interrupted (the interruption being restored afterwards)
+	static <T> void putUninterruptibly(BlockingQueue<T> queue, T item)
+	{
+		boolean	interrupted		= false;
+
+		while (true)
+		{
+			try							{	queue.put(item);	break;	}
+			catch(InterruptedException e)	{	interrupted	= true;		}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	static <T> T takeUninterruptibly(BlockingQueue<T> queue)
+	{
+		boolean	interrupted		= false;
+		T		item;
+
+		while (true)
+		{
+			try							{	item	= queue.take();	break;	}
+			catch(InterruptedException e)	{	interrupted	= true;		}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return item;
+	}
+
+	static void join(Thread[] threads)
+	{
+		boolean	interrupted		= false;
+
+		for (Thread thread : threads)
+			while (thread.isAlive())
+			{
+				try							{	thread.join();		}
+				catch(InterruptedException e)	{	interrupted	= true;	}
+			}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	// Pages of a file: views of the pages of an uncompressed 16-bit TIFF file mapped in memory (read once through, so that the batch
+	// reading stage does the disk accesses), otherwise the slices of the picture opened by the ImageJ Opener (null when it cannot be read)
+	static ChannelPlane[] readChannelPlanes(String path)
+	{
+		MappedTiff				tiff		= MappedTiff.open(path);
+		ChannelPlane		[]	planes;
+		ImagePlus				imp;
+		ImageStack				stack;
+
+		if (tiff != null)
+		{
+			tiff.load						();
+			planes							= new ChannelPlane[tiff.pages.length];
+			for (int k = 0; k != planes.length; k++)
+				planes[k]					= new ChannelPlane(tiff.width, tiff.height, tiff.pages[k], null);
+			return planes;
+		}
+		imp									= new Opener().openImage(path);
+		if (imp == null || imp.getBitDepth() == 24)
+			return null;
+		stack								= imp.getImageStack();
+		planes								= new ChannelPlane[stack.getSize()];
+		for (int k = 0; k != planes.length; k++)
+		{
+			ImageProcessor	ip				= stack.getProcessor(k + 1);
+
+			ip.setCalibrationTable			(imp.getCalibration().getCTable());
+			planes[k]						= new ChannelPlane(ip.getWidth(), ip.getHeight(), null, ip);
+		}
+		return planes;
+	}
+
+	// Moments of the pages of both channels (paired up to the shortest one) within the given spans, scatterPlot axes and gate, channel 2
+	// being translated onto channel 1 per page when a channel alignment is chosen
+	static ColocalizationMoments analyzeChannelPlanes(ChannelPlane[] planes1, ChannelPlane[] planes2, String key, ScatterAxis[] axes, boolean[] gate, RoiSpans spans)
+	{
+		ColocalizationMoments	mo			= new ColocalizationMoments(minI1, maxI1, minI2, maxI2);
+		int						size		= axes[0].size, page, py, k, px, p, b1, b2;
+		ChannelPlane			plane1, plane2;
+		ChannelView				view2;
+		double				[]	shift;
+		float					v1, v2;
+
+		for (page = 0; page < Math.min(planes1.length, planes2.length); page++)
+		{
+			plane1							= planes1[page];
+			plane2							= planes2[page];
+			view2							= null;
+			if (channelAlignmentIndex == 1)
+			{
+				shift						= getChannelShift(plane1.getProcessor(), plane2.getProcessor(), key + ":" + page);
+				view2						= new ChannelView(plane2.getProcessor(), shift[0], shift[1]);
+			}
+			for (py = 0; py < h1; py++)
+				for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+					for (px = spans.xStart[k], p = py * w1 + px; px < spans.xEnd[k]; px++, p++)
+					{
+						v1					= plane1.getValue(p);
+						v2					= view2 == null ? plane2.getValue(p) : view2.getValue(px, py);
+						mo.addIntensities	(v1, v2);
+						b1					= axes[0].getBin(v1);
+						b2					= axes[1].getBin(v2);
+						if (b1 >= 0 && b2 >= 0 && gate[b2 * (size + 1) + b1])
+							mo.addGated		(axes[0].coordinates[b1], axes[1].coordinates[b2]);
+					}
+		}
+		return mo;
+	}
+
+	// call("Colocalization_Finder.proposeGatesByMacro", _sigma, _prominence, _min_percent);
+	public static String proposeGatesByMacro(String _sigma, String _prominence, String _min_percent)
+	{
+		double	sigma, prominence, minPercent;
+
+		try								{	sigma			= Double.valueOf(_sigma)			;}
+		catch(NumberFormatException e)	{	sigma			= autoGateSigma						;}
+		try								{	prominence		= Double.valueOf(_prominence)		;}
+		catch(NumberFormatException e)	{	prominence		= autoGateProminence				;}
+		try								{	minPercent		= Double.valueOf(_min_percent)		;}
+		catch(NumberFormatException e)	{	minPercent		= autoGateMinPercent				;}
+
+		return proposeGates(sigma, prominence, minPercent);
+	}
+
+	static void proposeGatesDialog()
+	{
+		gd						= new GenericDialog("Automatic gates");
+		gd.setIconImage			(icon);
+		gd.addNumericField		("Smoothing_sigma (bins):"			, autoGateSigma		, 1);
+		gd.addNumericField		("Prominence (log counts):"			, autoGateProminence, 2);
+		gd.addNumericField		("Minimum_gate_size (% pixels):"	, autoGateMinPercent, 2);
+		gd.showDialog			();
+		if (gd.wasCanceled())
+			return;
+
+		autoGateSigma			= gd.getNextNumber();
+		autoGateProminence		= gd.getNextNumber();
+		autoGateMinPercent		= gd.getNextNumber();
+		proposeGates			(autoGateSigma, autoGateProminence, autoGateMinPercent);
+	}
+
+	// Gates proposed from the scatterPlot histogram alone (no pixel pass): the log counts are smoothed, their maxima standing out by
+	// more than prominence are found and the histogram is split along the watershed lines between them, each populated region holding
+	// at least minPercent of the pixels becoming a scatterPlot ROI added to the RoiManager as a gate (thus also evaluated by the 'q' key),
+	// its size, peak and mean intensities being written to a table. The bins along the axes (pixels at the minimum of one channel)
+	// are left out.
+	public static String proposeGates(double sigma, double prominence, double minPercent)
+	{
+		int						size		= scatterPlotSize + 1, b1, b2, p, q, k, top, nb = 0, nx, ny, px, py;
+		FloatProcessor			density		= new FloatProcessor(size, size);
+		float				[]	values		= (float[]) density.getPixels();
+		int					[]	labels		= new int[size * size];
+		int					[]	stack		= new int[size * size];
+		long					total		= 0;
+		long				[]	counts		= new long[64];
+		double				[][]sums		= new double[64][];
+		int					[]	peaks		= new int[64];
+		Rectangle			[]	boxes		= new Rectangle[64];
+		double					floor		= 0.5 * Math.log(2);
+		ByteProcessor			segmented, mask;
+		ResultsTable			rt			= new ResultsTable();
+		StringBuilder			output		= new StringBuilder();
+		ScatterAxis			[]	axes		= getScatterAxes();
+		long					start		= System.currentTimeMillis();
+		Roi						gate;
+
+		// Log counts oriented as the scatterPlot (bin2 upwards)
+		for (b2 = 1; b2 < size; b2++)
+			for (b1 = 1; b1 < size; b1++)
+			{
+				k						= scatterPlotHistogram[b2 * size + b1];
+				values[(size - 1 - b2) * size + b1]	= (float) Math.log1p(k);
+				total					+= k;
+			}
+		if (total == 0)
+			return "";
+		if (sigma > 0)
+			new GaussianBlur().blurGaussian(density, sigma, sigma, 0.002);
+		segmented				= new MaximumFinder().findMaxima(density, prominence, floor, MaximumFinder.SEGMENTED, false, false);
+
+		// 0: watershed line or not populated, -1: not labelled yet, > 0: region label
+		for (p = 0; p != labels.length; p++)
+			labels[p]			= segmented.get(p) != 0 && values[p] >= floor ? -1 : 0;
+		for (p = 0; p != labels.length; p++)
+		{
+			if (labels[p] != -1)
+				continue;
+			if (nb == counts.length)
+			{
+				counts			= Arrays.copyOf(counts, 2 * nb);
+				sums			= Arrays.copyOf(sums, 2 * nb);
+				peaks			= Arrays.copyOf(peaks, 2 * nb);
+				boxes			= Arrays.copyOf(boxes, 2 * nb);
+			}
+			sums[nb]			= new double[2];
+			boxes[nb]			= new Rectangle(p % size, p / size, 0, 0);
+			peaks[nb]			= p;
+			labels[p]			= nb + 1;
+			stack[0]			= p;
+			top					= 1;
+			while (top > 0)
+			{
+				q				= stack[--top];
+				px				= q % size;
+				py				= q / size;
+				k				= scatterPlotHistogram[(size - 1 - py) * size + px];
+				counts[nb]		+= k;
+				sums[nb][0]		+= k * axes[0].getValue(px + 0.5);
+				sums[nb][1]		+= k * axes[1].getValue(size - 1 - py + 0.5);
+				if (values[q] > values[peaks[nb]])
+					peaks[nb]	= q;
+				boxes[nb]		.add(px, py);
+				for (ny = Math.max(0, py - 1); ny <= Math.min(size - 1, py + 1); ny++)
+					for (nx = Math.max(0, px - 1); nx <= Math.min(size - 1, px + 1); nx++)
+						if (labels[ny * size + nx] == -1)
+						{
+							labels[ny * size + nx]	= nb + 1;
+							stack[top++]			= ny * size + nx;
+						}
+			}
+			nb++;
+		}
+
+		rm						= RoiManager.getInstance();
+		if (rm == null)
+		{
+			rm					= new RoiManager();
+			rm					.setIconImage(icon);
+		}
+		for (k = 0; k != nb; k++)
+		{
+			if (100.0 * counts[k] / total < minPercent)
+				continue;
+			// Traced within the bounding box of the region only
+			mask				= new ByteProcessor(boxes[k].width + 1, boxes[k].height + 1);
+			for (py = 0; py <= boxes[k].height; py++)
+				for (px = 0; px <= boxes[k].width; px++)
+					if (labels[(boxes[k].y + py) * size + boxes[k].x + px] == k + 1)
+						mask.set(px, py, 255);
+			mask.setThreshold	(255, 255, ImageProcessor.NO_LUT_UPDATE);
+			gate				= new ThresholdToSelection().convert(mask);
+			gate				.setLocation(gate.getBounds().x + boxes[k].x + xOffset, gate.getBounds().y + boxes[k].y + yOffset);
+			gate				.setStrokeColor(colors[rt.size() % colors.length].color);
+			gate				.setProperty(gateProperty, "gate");
+			rm					.addRoi(gate);
+			rm					.rename(rm.getCount() - 1, "Auto gate " + (rt.size() + 1));
+
+			rt.incrementCounter	();
+			rt.addLabel			("Auto gate " + rt.size());
+			rt.addValue			("nb_pixels"	, counts[k]);
+			rt.addValue			("%pixels"		, 100.0 * counts[k] / total);
+			rt.addValue			("peak_I1"		, axes[0].getValue(peaks[k] % size + 0.5));
+			rt.addValue			("peak_I2"		, axes[1].getValue(size - 1 - peaks[k] / size + 0.5));
+			rt.addValue			("mean_I1"		, sums[k][0] / counts[k]);
+			rt.addValue			("mean_I2"		, sums[k][1] / counts[k]);
+			if (output.length() > 0)
+				output.append	('\n');
+			output.append		(rt.getRowAsString(rt.size() - 1));
+		}
+		if (rm.getCount() > 0)
+			rm.runCommand		(scatterPlot, "Show All without labels");
+		rt.show					("Colocalization Finder Automatic Gates");
+		IJ.showStatus			(rt.size() + " gates proposed in " + (System.currentTimeMillis() - start) + " ms");
+
+		return output.toString();
+	}
+
+	// call("Colocalization_Finder.thresholdSweepByMacro", _slope, _show_maps);
+	public static void thresholdSweepByMacro(String _slope, String _show_maps)
+	{
+		double slope;
+
+		try								{	slope			= Double.valueOf(_slope)			;}
+		catch(NumberFormatException e)	{	slope			= 1									;}
+
+		thresholdSweep(slope, Boolean.valueOf(_show_maps));
+	}
+
+	// Pearson's coefficient, M1, M2 and %pixels of the pixels lying above every (threshold_1, threshold_2) pair, computed from the
+	// scatterPlot histogram only: the sums of the quadrants above each pair are accumulated from the highest bins downwards, so that
+	// all the pairs are obtained in O(bins^2). The curves along the diagonal threshold_2 bin = slope * threshold_1 bin are output as a
+	// ResultsTable and a Plot, and the maps over all the pairs as a 32-bit stack when showMaps is set.
+	public static void thresholdSweep(double slope, boolean showMaps)
+	{
+		int				b1, b2, t2, c, n1		= scatterPlotSize + 1;
+		double			step1					= (scatterPlotMax1 - scatterPlotMin1) / scatterPlotSize;
+		double			step2					= (scatterPlotMax2 - scatterPlotMin2) / scatterPlotSize;
+		double			n, s1, s2, s11, s22, s12, x1, x2, v1Sum, v2Sum, covariance, variance1, variance2;
+		ScatterAxis	[]	axes;
+		double		[]	colN					= new double[n1];
+		double		[]	colS1					= new double[n1];
+		double		[]	colS2					= new double[n1];
+		double		[]	colS11					= new double[n1];
+		double		[]	colS22					= new double[n1];
+		double		[]	colS12					= new double[n1];
+		double		[]	v1Above					= new double[n1];		// sum of the channel 1 intensities above each threshold_1 (whatever channel 2)
+		double		[]	v2Above					= new double[n1];		// sum of the channel 2 intensities above each threshold_2 (whatever channel 1)
+		float		[][]maps					= new float[4][n1 * n1];
+		double		[]	thresholds1, thresholds2, pearsonCurve, m1Curve, m2Curve, pixelsCurve;
+		ResultsTable	rt;
+		Plot			plot;
+		ImageStack		stack;
+
+		if (scatterPlotHistogram == null)
+			return;
+		axes										= getScatterAxes();
+
+		// Marginal sums of the intensities above each threshold, the intensity of a bin being its lower edge
+		for (b2 = scatterPlotSize; b2 >= 0; b2--)
+			for (b1 = scatterPlotSize; b1 >= 0; b1--)
+			{
+				c									= scatterPlotHistogram[b2 * n1 + b1];
+				v1Above[b1]							+= c * axes[0].edges[b1];
+				v2Above[b2]							+= c * axes[1].edges[b2];
+			}
+		for (b1 = scatterPlotSize - 1; b1 >= 0; b1--)
+		{
+			v1Above[b1]								+= v1Above[b1 + 1];
+			v2Above[b1]								+= v2Above[b1 + 1];
+		}
+
+		for (t2 = scatterPlotSize; t2 >= 0; t2--)
+		{
+			// column sums over the bins b2 >= t2, then swept along b1 from the highest bin to get the quadrant sums above (t1, t2),
+			// the bins being placed at their linear coordinates so that the lower edge intensity stays min + step * coordinate
+			x2										= axes[1].coordinates[t2];
+			for (b1 = 0; b1 != n1; b1++)
+			{
+				c									= scatterPlotHistogram[t2 * n1 + b1];
+				x1									= axes[0].coordinates[b1];
+				colN	[b1]						+= c;
+				colS1	[b1]						+= c * x1;
+				colS2	[b1]						+= c * x2;
+				colS11	[b1]						+= c * x1 * x1;
+				colS22	[b1]						+= c * x2 * x2;
+				colS12	[b1]						+= c * x1 * x2;
+			}
+			n = s1 = s2 = s11 = s22 = s12			= 0;
+			for (b1 = scatterPlotSize; b1 >= 0; b1--)
+			{
+				n									+= colN		[b1];
+				s1									+= colS1	[b1];
+				s2									+= colS2	[b1];
+				s11									+= colS11	[b1];
+				s22									+= colS22	[b1];
+				s12									+= colS12	[b1];
+				v1Sum								= scatterPlotMin1 * n + step1 * s1;
+				v2Sum								= scatterPlotMin2 * n + step2 * s2;
+				covariance							= s12 - s1 * s2 / n;
+				variance1							= s11 - s1 * s1 / n;
+				variance2							= s22 - s2 * s2 / n;
+				maps[0][t2 * n1 + b1]				= (float) (n > 1 ? covariance / Math.sqrt(variance1 * variance2) : Double.NaN);
+				maps[1][t2 * n1 + b1]				= (float) (v1Sum / v1Above[b1]);
+				maps[2][t2 * n1 + b1]				= (float) (v2Sum / v2Above[t2]);
+				maps[3][t2 * n1 + b1]				= (float) (100.0 * n / (w1 * h1));
+			}
+		}
+
+		thresholds1									= new double[n1];
+		thresholds2									= new double[n1];
+		pearsonCurve								= new double[n1];
+		m1Curve										= new double[n1];
+		m2Curve										= new double[n1];
+		pixelsCurve									= new double[n1];
+		rt											= new ResultsTable();
+		for (b1 = 0; b1 != n1; b1++)
+		{
+			b2										= (int) Math.round(slope * b1);
+			if (b2 < 0 || b2 > scatterPlotSize)
+			{
+				thresholds1							= Arrays.copyOf(thresholds1	, b1);
+				thresholds2							= Arrays.copyOf(thresholds2	, b1);
+				pearsonCurve						= Arrays.copyOf(pearsonCurve, b1);
+				m1Curve								= Arrays.copyOf(m1Curve		, b1);
+				m2Curve								= Arrays.copyOf(m2Curve		, b1);
+				pixelsCurve							= Arrays.copyOf(pixelsCurve	, b1);
+				break;
+			}
+			thresholds1[b1]							= axes[0].edges[b1];
+			thresholds2[b1]							= axes[1].edges[b2];
+			pearsonCurve[b1]						= maps[0][b2 * n1 + b1];
+			m1Curve[b1]								= maps[1][b2 * n1 + b1];
+			m2Curve[b1]								= maps[2][b2 * n1 + b1];
+			pixelsCurve[b1]							= maps[3][b2 * n1 + b1];
+			rt.incrementCounter						();
+			rt.addValue								("threshold_1"	, thresholds1[b1]);
+			rt.addValue								("threshold_2"	, thresholds2[b1]);
+			rt.addValue								("Pearson's_Rr"	, pearsonCurve[b1]);
+			rt.addValue								("M1"			, m1Curve[b1]);
+			rt.addValue								("M2"			, m2Curve[b1]);
+			rt.addValue								("%pixels"		, pixelsCurve[b1]);
+		}
+		rt.show										("Colocalization Finder Threshold Sweep");
+
+		for (b1 = 0; b1 != pixelsCurve.length; b1++)
+			pixelsCurve[b1]							/= 100;
+		plot										= new Plot("Colocalization Finder Threshold Sweep", "threshold_1 (" + titles[i1Index] + ")", "coefficient");
+		plot.setColor								(Color.black);
+		plot.add									("line", thresholds1, pearsonCurve);
+		plot.setColor								(Color.red);
+		plot.add									("line", thresholds1, m1Curve);
+		plot.setColor								(Color.green);
+		plot.add									("line", thresholds1, m2Curve);
+		plot.setColor								(Color.blue);
+		plot.add									("line", thresholds1, pixelsCurve);
+		plot.addLegend								("Pearson's_Rr\nM1\nM2\nfraction of pixels");
+		plot.show									();
+
+		if (showMaps)
+		{
+			// The maps are flipped vertically in order to be oriented as the scatterPlot
+			stack									= new ImageStack(n1, n1);
+			String[] labels							= {"Pearson's_Rr", "M1", "M2", "%pixels"};
+			for (c = 0; c != maps.length; c++)
+			{
+				FloatProcessor	map					= new FloatProcessor(n1, n1, maps[c]);
+				map.flipVertical					();
+				stack.addSlice						(labels[c], map);
+			}
+			showOutput								(new ImagePlus("Threshold Sweep Maps of " + titles[i1Index] + " and " + titles[i2Index], stack));
+		}
+	}
+
+	// call("Colocalization_Finder.bootstrapByMacro", _replicates, _level);
+	public static String bootstrapByMacro(String _replicates, String _level)
+	{
+		int		replicates;
+		double	level;
+
+		try								{	replicates		= Integer.valueOf(_replicates)		;}
+		catch(NumberFormatException e)	{	replicates		= bootstrapReplicates				;}
+		try								{	level			= Double.valueOf(_level)			;}
+		catch(NumberFormatException e)	{	level			= bootstrapLevel					;}
+		if (!(level > 0 && level < 100))
+			level				= bootstrapLevel;
+
+		comparison(false, false);
+		return bootstrap(metrics, replicates, level);
+	}
+
+	// Percentile bootstrap confidence intervals of the coefficients of the last exact comparison, written as a row of the bootstrap
+	// ResultsTable (value, lower and upper bound of each coefficient). The analyzed pixels are first reduced to classes sharing the same
+	// scatterPlot bin and the same side of both Manders thresholds, each replicate then redrawing the class counts from the multinomial
+	// distribution of n draws among the classes (n being the number of analyzed pixels, as many pixels being thus resampled with
+	// replacement), through sequential binomial draws, without ever copying the pixel arrays.
+	public static String bootstrap(ColocalizationMetrics m, int replicates, double level)
+	{
+		int						b, k, nbClasses, nBins	= (scatterPlotSize + 1) * (scatterPlotSize + 1);
+		int					[]	classCounts				= new int	[(nBins + 1) * 4];
+		double				[]	classSums1				= new double[(nBins + 1) * 4];
+		double				[]	classSums2				= new double[(nBins + 1) * 4];
+		boolean				[]	gate					= rasterizeGate(scatterPlotRoi);
+		double					v1, v2, alpha			= (1 - level / 100) / 2;
+		RoiSpans				spans					= getResultImageSpans();
+		ScatterAxis			[]	axes;
+		ResultsTable			rt;
+
+		if (m == null || replicates < 2 || m.approximate)
+			return "";
+
+		binIndices										= getBinIndices();
+		axes											= getScatterAxes();
+		for (y = 0; y < h1; y++)
+			for (i = spans.rowFirst[y]; i < spans.rowFirst[y + 1]; i++)
+				for (x = spans.xStart[i]; x < spans.xEnd[i]; x++)
+				{
+					v1									= channel1.getValue(x, y);
+					v2									= channel2.getValue(x, y);
+					b									= binIndices[y * w1 + x];
+					k									= ((b >= 0 ? b & ~BELOW_MIN : nBins) << 2) | (v1 > minI1 ? 2 : 0) | (v2 > minI2 ? 1 : 0);
+					classCounts[k]						++;
+					classSums1[k]						+= v1;
+					classSums2[k]						+= v2;
+				}
+
+		// Compaction of the non empty classes: bin coordinates (-1 outside of the gate), mean intensities and Manders flags
+		nbClasses										= 0;
+		for (k = 0; k != classCounts.length; k++)
+			if (classCounts[k] != 0)
+				nbClasses								++;
+		final int			[]	counts					= new int	[nbClasses];
+		final double		[]	bins1					= new double[nbClasses];
+		final double		[]	bins2					= new double[nbClasses];
+		final int			[]	flags					= new int	[nbClasses];
+		final double		[]	means1					= new double[nbClasses];
+		final double		[]	means2					= new double[nbClasses];
+		nbClasses										= 0;
+		for (k = 0; k != classCounts.length; k++)
+			if (classCounts[k] != 0)
+			{
+				b										= k >> 2;
+				counts	[nbClasses]						= classCounts[k];
+				bins1	[nbClasses]						= b < nBins && gate[b] ? axes[0].coordinates[b % (scatterPlotSize + 1)] : -1;
+				bins2	[nbClasses]						= b < nBins && gate[b] ? axes[1].coordinates[b / (scatterPlotSize + 1)] : -1;
+				flags	[nbClasses]						= k & 3;
+				means1	[nbClasses]						= classSums1[k] / classCounts[k];
+				means2	[nbClasses]						= classSums2[k] / classCounts[k];
+				nbClasses								++;
+			}
+
+		int						sum						= 0;
+		for (k = 0; k != nbClasses; k++)
+			sum											+= counts[k];
+		final int				total					= sum;
+
+		// One random generator per replicate, split from a single seeded one, so that the intervals do not depend on the number of threads
+		final int				nbReplicates			= replicates;
+		final double		[][]values					= new double[bootstrapLabels.length][nbReplicates];
+		final SplittableRandom[]randoms					= new SplittableRandom[nbReplicates];
+		final SplittableRandom	seed					= new SplittableRandom(bootstrapSeed);
+		final AtomicInteger		next					= new AtomicInteger();
+		final double			lowI1 = minI1, highI1 = maxI1, lowI2 = minI2, highI2 = maxI2;
+		Thread				[]	threads					= ThreadUtil.createThreadArray(Prefs.getThreads());
+
+		for (k = 0; k != nbReplicates; k++)
+			randoms[k]									= seed.split();
+		for (k = 0; k != threads.length; k++)
+		{
+			threads[k]									= new Thread()
+			{
+				public void run()
+				{
+					double	[]	coefficients			= new double[bootstrapLabels.length];
+					int			r, c, j, w, left, rest;
+
+					for (r = next.getAndIncrement(); r < nbReplicates; r = next.getAndIncrement())
+					{
+						ColocalizationMoments	mo		= new ColocalizationMoments(lowI1, highI1, lowI2, highI2);
+						left							= total;
+						rest							= total;
+						for (c = 0; c != counts.length; c++)
+						{
+							w							= c == counts.length - 1 ? left : getBinomial(randoms[r], left, (double) counts[c] / rest);
+							left						-= w;
+							rest						-= counts[c];
+							if (w == 0)
+								continue;
+							if (bins1[c] >= 0)
+							{
+								mo.n					+= w;
+								mo.sx					+= (double) w * bins1[c];
+								mo.sy					+= (double) w * bins2[c];
+								mo.sxx					+= (double) w * bins1[c] * bins1[c];
+								mo.syy					+= (double) w * bins2[c] * bins2[c];
+								mo.sxy					+= (double) w * bins1[c] * bins2[c];
+							}
+							if ((flags[c] & 2) != 0)
+							{
+								mo.m1Den				+= w * means1[c];
+								mo.m1NormDen			+= w;
+								if ((flags[c] & 1) != 0)
+								{
+									mo.m1Num			+= w * means1[c];
+									mo.m1NormNum		+= w;
+								}
+							}
+							if ((flags[c] & 1) != 0)
+							{
+								mo.m2Den				+= w * means2[c];
+								mo.m2NormDen			+= w;
+								if ((flags[c] & 2) != 0)
+								{
+									mo.m2Num			+= w * means2[c];
+									mo.m2NormNum		+= w;
+								}
+							}
+						}
+						getCoefficients(mo, coefficients);
+						for (j = 0; j != coefficients.length; j++)
+							values[j][r]				= coefficients[j];
+					}
+				}
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+
+		rt												= ResultsTable.getResultsTable(BootstrapTitle);
+		if (rt == null)
+			rt											= new ResultsTable();
+		rt.incrementCounter								();
+		rt.addValue										("Picture_1"	, resultImage.getImageStack().getSliceLabel(1));
+		rt.addValue										("Picture_2"	, resultImage.getImageStack().getSliceLabel(2));
+		if (resultImageSliceNumbers > 1)
+			rt.addValue									("Slice"		, m.slice);
+		rt.addValue										("ROI"			, resultImage.getRoi() == null || resultImage.getRoi().getName() == null ? "-" : resultImage.getRoi().getName());
+		rt.addValue										("Replicates"	, nbReplicates);
+		rt.addValue										("Level"		, level);
+		double				[]	estimates				= {m.pearson, m.overlap, m.k1, m.k2, m.m1, m.m2, m.m1Norm, m.m2Norm, m.slope, m.intercept};
+		for (k = 0; k != bootstrapLabels.length; k++)
+		{
+			Arrays.sort									(values[k]);
+			rt.addValue									(bootstrapLabels[k]				, estimates[k]);
+			rt.addValue									(bootstrapLabels[k] + "_low"	, values[k][(int) Math.floor(	alpha		* (nbReplicates - 1))]);
+			rt.addValue									(bootstrapLabels[k] + "_high"	, values[k][(int) Math.ceil(	(1 - alpha)	* (nbReplicates - 1))]);
+		}
+		rt.show											(BootstrapTitle);
+
+		return rt.getRowAsString(rt.size() - 1);
+	}
+
+	// Coefficients of the given moments in the order of bootstrapLabels, read from their ColocalizationMetrics
+	static void getCoefficients(ColocalizationMoments mo, double[] coefficients)
+	{
+		ColocalizationMetrics	m	= new ColocalizationMetrics(mo, 1, false);
+
+		coefficients[0]			= m.pearson;
+		coefficients[1]			= m.overlap;
+		coefficients[2]			= m.k1;
+		coefficients[3]			= m.k2;
+		coefficients[4]			= m.m1;
+		coefficients[5]			= m.m2;
+		coefficients[6]			= m.m1Norm;
+		coefficients[7]			= m.m2Norm;
+		coefficients[8]			= m.slope;
+		coefficients[9]			= m.intercept;
+	}
+
+	// Binomial deviate of n trials of probability p: the rank a = 1 + n / 2 uniform of n is drawn from its Beta(a, n + 1 - a) distribution
+	// and the trials are split on either side of it (Knuth, TAOCP 3.4.1) until few are left, counted then by inversion (exact as long
+	// as n min(p, 1 - p) is small, the probability of 0 successes being at least exp(-30))
+	static int getBinomial(SplittableRandom random, int n, double p)
+	{
+		int		k			= 0, a, x;
+		double	beta, u, r, s;
+
+		if (p >= 1)
+			return n;
+		while (n > 0 && p > 0 && n * Math.min(p, 1 - p) >= 30)
+		{
+			a				= 1 + n / 2;
+			beta			= getBeta(random, a, n + 1 - a);
+			if (beta >= p)
+			{
+				n			= a - 1;
+				p			/= beta;
+			}
+			else
+			{
+				k			+= a;
+				n			-= a;
+				p			= (p - beta) / (1 - beta);
+			}
+		}
+		if (n <= 0 || p <= 0)
+			return k;
+		if (p > 0.5)
+			return k + n - getBinomial(random, n, 1 - p);
+		s					= p / (1 - p);
+		r					= Math.exp(n * Math.log1p(-p));
+		u					= random.nextDouble();
+		for (x = 0; u > r && x < n; x++)
+		{
+			u				-= r;
+			r				*= s * (n - x) / (x + 1);
+		}
+		return k + x;
+	}
+
+	// Beta(a, b) deviate as the ratio of two gamma deviates
+	static double getBeta(SplittableRandom random, double a, double b)
+	{
+		double	x			= getGamma(random, a);
+
+		return x / (x + getGamma(random, b));
+	}
+
+	// Gamma(a, 1) deviate for a >= 1 (Marsaglia and Tsang, 2000), the normal deviates being drawn by the polar method
+	static double getGamma(SplittableRandom random, double a)
+	{
+		double	d			= a - 1.0 / 3, c = 1 / Math.sqrt(9 * d), x, v, u, w;
+
+		while (true)
+		{
+			do
+			{
+				x			= 2 * random.nextDouble() - 1;
+				u			= 2 * random.nextDouble() - 1;
+				w			= x * x + u * u;
+			}
+			while (w >= 1 || w == 0);
+			x				*= Math.sqrt(-2 * Math.log(w) / w);
+			v				= 1 + c * x;
+			if (v <= 0)
+				continue;
+			v				= v * v * v;
+			u				= random.nextDouble();
+			if (u < 1 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1 - v + Math.log(v)))
+				return d * v;
+		}
+	}
+
+	// call("Colocalization_Finder.analyzeObjectsByMacro", _distance, _show_distributions);
+	public static String analyzeObjectsByMacro(String _distance, String _show_distributions)
+	{
+		double	distance;
+
+		try								{	distance		= Double.valueOf(_distance)			;}
+		catch(NumberFormatException e)	{	distance		= objectDistance					;}
+		if (!(distance >= 0))
+			distance			= objectDistance;
+
+		return analyzeObjects(distance, Boolean.valueOf(_show_distributions));
+	}
+
+	// Object based colocalization: the spots of each channel are the 8-connected components of the pixels above minI1 (respectively
+	// minI2) within the analysis ROI, represented by their intensity weighted centroids. The nearest spot of the other channel is
+	// looked up within a k-d tree, the row written to the Results window holding the usual coefficients followed by the numbers of
+	// spots, the percentages of them having a spot of the other channel closer than distance and the median nearest neighbour distances.
+	public static String analyzeObjects(double distance, boolean showDistributions)
+	{
+		RoiSpans	spans		= getResultImageSpans();
+		double	[][]spots1		= getSpots(channel1, minI1, spans);
+		double	[][]spots2		= getSpots(channel2, minI2, spans);
+		double	[]	distances1	= new KdTree(spots2[0], spots2[1]).getNearestDistances(spots1[0], spots1[1]);
+		double	[]	distances2	= new KdTree(spots1[0], spots1[1]).getNearestDistances(spots2[0], spots2[1]);
+		String		row;
+		Plot		plot;
+
+		objectDistance			= distance;
+		comparison(false, false);
+
+		row						= getResultsAsString("\t") + "\t-\t"
+								+ distances1.length													+ "\t"
+								+ distances2.length													+ "\t"
+								+ IJ.d2s(getPercentageWithin(distances1, distance)	, 4)			+ "\t"
+								+ IJ.d2s(getPercentageWithin(distances2, distance)	, 4)			+ "\t"
+								+ IJ.d2s(getMedian(distances1)						, 4)			+ "\t"
+								+ IJ.d2s(getMedian(distances2)						, 4);
+
+		ResultsWindow			= getResultsWindow();
+		if (!ResultsWindow.getTextPanel().getColumnHeadings().endsWith(ObjectHeadings))
+			ResultsWindow.getTextPanel().updateColumnHeadings(ResultsHeadings + ObjectHeadings);
+		ResultsWindow.append	(row);
+
+		if (showDistributions && distances1.length > 0 && distances2.length > 0)
+		{
+			plot				= new Plot("Colocalization Finder Nearest Neighbour Distances", "distance (pixels)", "cumulated fraction of spots");
+			plot.setColor		(Color.red);
+			plot.add			("line", distances1, getCumulatedFractions(distances1.length));
+			plot.setColor		(Color.green);
+			plot.add			("line", distances2, getCumulatedFractions(distances2.length));
+			plot.setColor		(Color.gray);
+			plot.drawDottedLine	(distance, 0, distance, 1, 2);
+			plot.addLegend		(titles[i1Index] + " to " + titles[i2Index] + "\n" + titles[i2Index] + " to " + titles[i1Index]);
+			plot.show			();
+		}
+		return row;
+	}
+
+	// Centroids {x[], y[]} of the 8-connected components of the pixels above threshold lying within the spans, weighted by the intensity
+	// above the threshold (always > 0, whatever the sign of the pixel values, the plain centroid being used should the weights overflow)
+	static double[][] getSpots(ChannelView ip, double threshold, RoiSpans spans)
+	{
+		int			[]	labels		= new int[w1 * h1];
+		int			[]	stack		= new int[w1 * h1];
+		double		[]	xs			= new double[64];
+		double		[]	ys			= new double[64];
+		int				nb			= 0, top, p, px, py, nx, ny, sx, sy, s, area;
+		double			v, sum, sumX, sumY, cx, cy;
+
+		// 0: outside of the analysis ROI or below the threshold, -1: foreground not yet labelled, > 0: spot label
+		for (sy = 0; sy < h1; sy++)
+			for (s = spans.rowFirst[sy]; s < spans.rowFirst[sy + 1]; s++)
+				for (sx = spans.xStart[s]; sx < spans.xEnd[s]; sx++)
+					if (ip.getValue(sx, sy) > threshold)
+						labels[sy * w1 + sx]	= -1;
+
+		for (p = 0; p != labels.length; p++)
+		{
+			if (labels[p] != -1)
+				continue;
+			if (nb == xs.length)
+			{
+				xs					= Arrays.copyOf(xs, 2 * nb);
+				ys					= Arrays.copyOf(ys, 2 * nb);
+			}
+			sum = sumX = sumY		= 0;
+			cx = cy					= 0;
+			area					= 0;
+			labels[p]				= nb + 1;
+			stack[0]				= p;
+			top						= 1;
+			while (top > 0)
+			{
+				px					= stack[--top] % w1;
+				py					= stack[top] / w1;
+				v					= ip.getValue(px, py) - threshold;
+				sum					+= v;
+				sumX				+= v * px;
+				sumY				+= v * py;
+				cx					+= px;
+				cy					+= py;
+				area				++;
+				for (ny = Math.max(0, py - 1); ny <= Math.min(h1 - 1, py + 1); ny++)
+					for (nx = Math.max(0, px - 1); nx <= Math.min(w1 - 1, px + 1); nx++)
+						if (labels[ny * w1 + nx] == -1)
+						{
+							labels[ny * w1 + nx]	= nb + 1;
+							stack[top++]			= ny * w1 + nx;
+						}
+			}
+			if (sum > 0 && !Double.isInfinite(sum))
+			{
+				xs[nb]				= sumX / sum + 0.5;
+				ys[nb]				= sumY / sum + 0.5;
+			}
+			else
+			{
+				xs[nb]				= cx / area + 0.5;
+				ys[nb]				= cy / area + 0.5;
+			}
+			nb						++;
+		}
+		return new double[][] {Arrays.copyOf(xs, nb), Arrays.copyOf(ys, nb)};
+	}
+
+	static double getPercentageWithin(double[] sortedDistances, double distance)
+	{
+		int		n				= 0;
+
+		while (n < sortedDistances.length && sortedDistances[n] <= distance)
+			n++;
+		return sortedDistances.length == 0 ? Double.NaN : 100.0 * n / sortedDistances.length;
+	}
+
+	static double getMedian(double[] sortedValues)
+	{
+		int		n				= sortedValues.length;
+
+		if (n == 0)
+			return Double.NaN;
+		return n % 2 == 1 ? sortedValues[n / 2] : 0.5 * (sortedValues[n / 2 - 1] + sortedValues[n / 2]);
+	}
+
+	static double[] getCumulatedFractions(int n)
+	{
+		double	[]	fractions	= new double[n];
+
+		for (int k = 0; k < n; k++)
+			fractions[k]		= (k + 1.0) / n;
+		return fractions;
+	}
+
+	// call("Colocalization_Finder.crossCorrelationByMacro", _max_shift, _use_roi);
+	public static String crossCorrelationByMacro(String _max_shift, String _use_roi)
+	{
+		int		maxShift;
+
+		try								{	maxShift		= Integer.valueOf(_max_shift)		;}
+		catch(NumberFormatException e)	{	maxShift		= ccfMaxShift						;}
+		if (maxShift < 0)
+			maxShift			= ccfMaxShift;
+
+		double	[]	ccf			= crossCorrelation(maxShift, Boolean.valueOf(_use_roi), true);
+		StringBuilder	sb		= new StringBuilder(16 * ccf.length);
+		for (int k = 0; k < ccf.length; k++)
+			sb.append(k == 0 ? "" : ",").append(IJ.d2s(ccf[k], 8));
+		return sb.toString();
+	}
+
+	// Van Steensel cross-correlation function: Pearson's coefficient between channel 1 and channel 2 shifted by dx along x, for all the
+	// shifts within [-maxShift, maxShift]. The pixels of channel 1 are restricted to the result image ROI when useRoi is set, and the
+	// pairs falling outside of the picture are discarded. All the needed sums (pair count, sums and sums of squares and of products)
+	// are correlations along the rows: the row spectra are accumulated, so that only 6 inverse FFTs are needed for the whole curve.
+	public static double[] crossCorrelation(int maxShift, boolean useRoi, boolean show)
+	{
+		int				k, row, length	= 1;
+		RoiSpans		spans			= useRoi ? getResultImageSpans() : RoiSpans.fromRoi(null, w1, h1);
+		double			mean1 = 0, mean2 = 0, n1 = 0, v, n, s1, s2, s11, s22, s12;
+		double		[]	ccf, shifts;
+
+		maxShift						= Math.max(0, Math.min(maxShift, w1 - 1));
+		ccf								= new double[2 * maxShift + 1];
+		shifts							= new double[2 * maxShift + 1];
+		while (length < w1 + maxShift)
+			length						<<= 1;
+
+		// The intensities are centered in order to limit the cancellation errors, Pearson's coefficient being translation invariant
+		for (y = 0; y < h1; y++)
+		{
+			for (i = spans.rowFirst[y]; i < spans.rowFirst[y + 1]; i++)
+				for (x = spans.xStart[i]; x < spans.xEnd[i]; x++)
+				{
+					mean1				+= channel1.getValue(x, y);
+					n1					++;
+				}
+			for (x = 0; x < w1; x++)
+				mean2					+= channel2.getValue(x, y);
+		}
+		mean1							/= n1;
+		mean2							/= (double) w1 * h1;
+
+		// Signals: 0 mask_1, 1 a, 2 a^2 (channel 1 within the ROI) and 3 mask_2, 4 b, 5 b^2 (channel 2 within the picture)
+		double		[][]re				= new double[6][length];
+		double		[][]im				= new double[6][length];
+		double		[][]sumRe			= new double[6][length];
+		double		[][]sumIm			= new double[6][length];
+		int			[][]pairs			= {{0, 3}, {1, 3}, {0, 4}, {2, 3}, {0, 5}, {1, 4}};		// n, s1, s2, s11, s22, s12
+
+		for (row = 0; row < h1; row++)
+		{
+			if (spans.rowFirst[row] == spans.rowFirst[row + 1])
+				continue;
+			for (k = 0; k < 6; k++)
+			{
+				Arrays.fill				(re[k], 0);
+				Arrays.fill				(im[k], 0);
+			}
+			for (i = spans.rowFirst[row]; i < spans.rowFirst[row + 1]; i++)
+				for (x = spans.xStart[i]; x < spans.xEnd[i]; x++)
+				{
+					v					= channel1.getValue(x, row) - mean1;
+					re[0][x]			= 1;
+					re[1][x]			= v;
+					re[2][x]			= v * v;
+				}
+			for (x = 0; x < w1; x++)
+			{
+				v						= channel2.getValue(x, row) - mean2;
+				re[3][x]				= 1;
+				re[4][x]				= v;
+				re[5][x]				= v * v;
+			}
+			for (k = 0; k < 6; k++)
+				fft						(re[k], im[k], false);
+			// Correlation theorem: sum over x of f(x) g(x + dx) is the inverse transform of conj(F) G
+			for (k = 0; k < 6; k++)
+				for (x = 0; x < length; x++)
+				{
+					sumRe[k][x]			+= re[pairs[k][0]][x] * re[pairs[k][1]][x] + im[pairs[k][0]][x] * im[pairs[k][1]][x];
+					sumIm[k][x]			+= re[pairs[k][0]][x] * im[pairs[k][1]][x] - im[pairs[k][0]][x] * re[pairs[k][1]][x];
+				}
+		}
+		for (k = 0; k < 6; k++)
+			fft							(sumRe[k], sumIm[k], true);
+
+		for (k = -maxShift; k <= maxShift; k++)
+		{
+			x							= k < 0 ? k + length : k;
+			n							= Math.round(sumRe[0][x]);
+			s1							= sumRe[1][x];
+			s2							= sumRe[2][x];
+			s11							= sumRe[3][x];
+			s22							= sumRe[4][x];
+			s12							= sumRe[5][x];
+			shifts	[k + maxShift]		= k;
+			ccf		[k + maxShift]		= n > 1 ? (s12 - s1 * s2 / n) / Math.sqrt((s11 - s1 * s1 / n) * (s22 - s2 * s2 / n)) : Double.NaN;
+		}
+
+		if (show)
+			showCrossCorrelation		(shifts, ccf);
+		return ccf;
+	}
+
+	// Plots the cross-correlation function with its peak position and its full width at half maximum, the half maximum being taken
+	// halfway between the lowest value of the curve and its peak, the crossings being linearly interpolated
+	static void showCrossCorrelation(double[] shifts, double[] ccf)
+	{
+		int		peak			= 0, k;
+		double	low				= Double.POSITIVE_INFINITY, half, left, right;
+		Plot	plot;
+
+		for (k = 0; k < ccf.length; k++)
+		{
+			if (ccf[k] > ccf[peak] || Double.isNaN(ccf[peak]))
+				peak			= k;
+			if (ccf[k] < low)
+				low				= ccf[k];
+		}
+		half					= 0.5 * (low + ccf[peak]);
+		for (k = peak; k > 0 && ccf[k - 1] > half; k--);
+		left					= k == 0 ? shifts[0] : shifts[k - 1] + (half - ccf[k - 1]) / (ccf[k] - ccf[k - 1]);
+		for (k = peak; k < ccf.length - 1 && ccf[k + 1] > half; k++);
+		right					= k == ccf.length - 1 ? shifts[k] : shifts[k] + (ccf[k] - half) / (ccf[k] - ccf[k + 1]);
+
+		plot					= new Plot("Van Steensel CCF of " + titles[i1Index] + " and " + titles[i2Index], "dx (pixels)", "Pearson's_Rr");
+		plot.setColor			(Color.black);
+		plot.add				("line", shifts, ccf);
+		plot.setColor			(Color.red);
+		plot.drawDottedLine		(shifts[peak], low, shifts[peak], ccf[peak], 2);
+		plot.setColor			(Color.blue);
+		plot.drawLine			(left, half, right, half);
+		plot.setColor			(Color.black);
+		plot.addLabel			(0.02, 0.08, "peak: dx = " + IJ.d2s(shifts[peak], 0) + ", Rr = " + IJ.d2s(ccf[peak], 4) + "   FWHM: " + IJ.d2s(right - left, 2));
+		plot.show				();
+	}
+
+	// In place radix-2 complex FFT (the length being a power of 2), the inverse transform being scaled by 1 / length
+	static void fft(double[] re, double[] im, boolean inverse)
+	{
+		int		n				= re.length, j = 0, k, m, len;
+		double	angle, wr, wi, cr, ci, tr, ti, swap;
+
+		for (k = 1; k < n; k++)
+		{
+			for (m = n >> 1; (j & m) != 0; m >>= 1)
+				j				^= m;
+			j					|= m;
+			if (k < j)
+			{
+				swap = re[k]; re[k] = re[j]; re[j] = swap;
+				swap = im[k]; im[k] = im[j]; im[j] = swap;
+			}
+		}
+		for (len = 2; len <= n; len <<= 1)
+		{
+			angle				= (inverse ? 2 : -2) * Math.PI / len;
+			for (k = 0; k < len / 2; k++)
+			{
+				wr				= Math.cos(angle * k);
+				wi				= Math.sin(angle * k);
+				for (j = k; j < n; j += len)
+				{
+					m			= j + len / 2;
+					cr			= re[m] * wr - im[m] * wi;
+					ci			= re[m] * wi + im[m] * wr;
+					tr			= re[j];
+					ti			= im[j];
+					re[j]		= tr + cr;
+					im[j]		= ti + ci;
+					re[m]		= tr - cr;
+					im[m]		= ti - ci;
+				}
+			}
+		}
+		if (inverse)
+			for (k = 0; k < n; k++)
+			{
+				re[k]			/= n;
+				im[k]			/= n;
+			}
+	}
+
+	// call("Colocalization_Finder.setChannelAlignmentByMacro", _align);
+	public static String setChannelAlignmentByMacro(String _align)
+	{
+		channelAlignmentIndex	= Boolean.valueOf(_align) ? 1 : 0;
+		clearSliceCache			();
+		updateChannels			();
+		rebuild_scatter_plot	();
+		comparison				(false, false);
+		return IJ.d2s(channel2.dx, 3) + "," + IJ.d2s(channel2.dy, 3);
+	}
+
+	// call("Colocalization_Finder.localPearsonMapByMacro", _window_size, _gated);
+	public static void localPearsonMapByMacro(String _window_size, String _gated)
+	{
+		int		windowSize;
+
+		try								{	windowSize		= Integer.valueOf(_window_size)		;}
+		catch(NumberFormatException e)	{	windowSize		= localWindowSize					;}
+		if (windowSize < 3)
+			windowSize			= localWindowSize;
+
+		localPearsonMap(windowSize, Boolean.valueOf(_gated));
+	}
+
+	// Pearson's coefficient within the windowSize x windowSize window centered on each pixel (clipped at the picture edges), only the
+	// pixels within the scatterPlot ROI being taken into account when gated is set, displayed next to the result picture
+	public static ImagePlus localPearsonMap(int windowSize, boolean gated)
+	{
+		ImagePlus		imp		= new ImagePlus("Local Pearson map (" + windowSize + "x" + windowSize + ") of " + titles[i1Index] + " and " + titles[i2Index], getLocalPearsonMap(windowSize, gated));
+		ImageWindow		win;
+
+		imp.getProcessor().setMinAndMax	(-1, 1);
+		imp.setCalibration				(resultImage.getCalibration());
+		showOutput						(imp);
+		win								= imp.getWindow();
+		if (win != null && resultImage.getWindow() != null)
+			win.setLocation				(resultImage.getWindow().getX() + resultImage.getWindow().getWidth(), resultImage.getWindow().getY());
+		return imp;
+	}
+
+	// The window sums are read from integral images of the pixel count, of both (centered) intensities, of their squares and of their
+	// product, so that each window costs O(1) whatever its size, the integral images and the map being computed in parallel
+	static FloatProcessor getLocalPearsonMap(int windowSize, boolean gated)
+	{
+		final int			width		= w1 + 1, radius = windowSize / 2;
+		final double	[]	n			= new double[width * (h1 + 1)];
+		final double	[]	sx			= new double[width * (h1 + 1)];
+		final double	[]	sy			= new double[width * (h1 + 1)];
+		final double	[]	sxx			= new double[width * (h1 + 1)];
+		final double	[]	syy			= new double[width * (h1 + 1)];
+		final double	[]	sxy			= new double[width * (h1 + 1)];
+		final float		[]	map			= new float[w1 * h1];
+		final boolean	[]	gate		= gated ? rasterizeGate(scatterPlotRoi) : null;
+		final int		[]	bins		= gated ? getBinIndices() : null;
+		final double		mean1, mean2;
+		double				sum1 = 0, sum2 = 0;
+
+		for (y = 0; y < h1; y++)
+			for (x = 0; x < w1; x++)
+			{
+				sum1					+= channel1.getValue(x, y);
+				sum2					+= channel2.getValue(x, y);
+			}
+		mean1							= sum1 / ((double) w1 * h1);
+		mean2							= sum2 / ((double) w1 * h1);
+
+		// Integral images, cumulated along the rows then along the columns, both passes being shared among the threads
+		new ParallelLoop()
+		{
+			void run(int row)
+			{
+				int		p		= (row + 1) * width + 1, b;
+				double	u, v;
+
+				for (int px = 0; px < w1; px++, p++)
+				{
+					b			= gated ? bins[row * w1 + px] : 0;
+					if (!gated || (b >= 0 && gate[b & ~BELOW_MIN]))
+					{
+						u		= channel1.getValue(px, row) - mean1;
+						v		= channel2.getValue(px, row) - mean2;
+						n	[p]	= 1;
+						sx	[p]	= u;
+						sy	[p]	= v;
+						sxx	[p]	= u * u;
+						syy	[p]	= v * v;
+						sxy	[p]	= u * v;
+					}
+					n	[p]		+= n	[p - 1];
+					sx	[p]		+= sx	[p - 1];
+					sy	[p]		+= sy	[p - 1];
+					sxx	[p]		+= sxx	[p - 1];
+					syy	[p]		+= syy	[p - 1];
+					sxy	[p]		+= sxy	[p - 1];
+				}
+			}
+		}.start(h1);
+		new ParallelLoop()
+		{
+			void run(int column)
+			{
+				for (int p = 2 * width + column + 1; p < n.length; p += width)
+				{
+					n	[p]		+= n	[p - width];
+					sx	[p]		+= sx	[p - width];
+					sy	[p]		+= sy	[p - width];
+					sxx	[p]		+= sxx	[p - width];
+					syy	[p]		+= syy	[p - width];
+					sxy	[p]		+= sxy	[p - width];
+				}
+			}
+		}.start(w1);
+
+		new ParallelLoop()
+		{
+			// Sum of the integral image a over the rectangle of corners (x0, y0) included and (x1, y1) excluded
+			double getSum(double[] a, int x0, int y0, int x1, int y1)
+			{
+				return a[y1 * width + x1] - a[y0 * width + x1] - a[y1 * width + x0] + a[y0 * width + x0];
+			}
+
+			void run(int row)
+			{
+				int		y0		= Math.max(0, row - radius), y1 = Math.min(h1, row + radius + 1), x0, x1;
+				double	count, s1, s2, covariance, variance1, variance2;
+
+				for (int px = 0; px < w1; px++)
+				{
+					x0			= Math.max(0, px - radius);
+					x1			= Math.min(w1, px + radius + 1);
+					count		= getSum(n, x0, y0, x1, y1);
+					s1			= getSum(sx, x0, y0, x1, y1);
+					s2			= getSum(sy, x0, y0, x1, y1);
+					covariance	= getSum(sxy, x0, y0, x1, y1) - s1 * s2 / count;
+					variance1	= getSum(sxx, x0, y0, x1, y1) - s1 * s1 / count;
+					variance2	= getSum(syy, x0, y0, x1, y1) - s2 * s2 / count;
+					map[row * w1 + px]	= count > 1 && variance1 > 0 && variance2 > 0 ? (float) (covariance / Math.sqrt(variance1 * variance2)) : Float.NaN;
+				}
+			}
+		}.start(h1);
+
+		return new FloatProcessor(w1, h1, map);
+	}
+
+	// call("Colocalization_Finder.nmdpImageByMacro", _whole_stack, _within_roi);
+	public static void nmdpImageByMacro(String _whole_stack, String _within_roi)
+	{
+		nmdpImage(Boolean.valueOf(_whole_stack), Boolean.valueOf(_within_roi));
+	}
+
+	// Maps chosen from the '0' key: the local Pearson map (window and pixels set within the settings dialog), the nMDP image, the
+	// time series (live or not), picture 1 versus all the other open pictures of its size, the automatic gates or a batch of file pairs
+	static void showMapsDialog()
+	{
+		String	[]	mapsText	= {"Local Pearson map", "nMDP image", "Time series", "Picture 1 versus all pictures", "Automatic gates", "Batch of file pairs"};
+		String	[]	slicesText	= {"Current slice", "Whole stack"};
+		String	[]	pixelsText	= {"Whole picture", "Result picture ROI"};
+
+		gd						= new GenericDialog("Colocalization maps");
+		gd.setIconImage			(icon);
+		gd.addChoice			("Map", mapsText, mapsText[mapIndex]);
+		if (resultImageSliceNumbers > 1)
+			gd.addChoice		("Slices", slicesText, slicesText[0]);
+		gd.addChoice			("Pixels", pixelsText, pixelsText[resultImage.getRoi() == null ? 0 : 1]);
+		gd.addCheckbox			("Follow_new_frames (time series)", timeSeriesTimer != null);
+		gd.showDialog			();
+		if (gd.wasCanceled())
+			return;
+
+		mapIndex				= gd.getNextChoiceIndex();
+		boolean	wholeStack		= resultImageSliceNumbers > 1 && gd.getNextChoiceIndex() == 1;
+		boolean	withinRoi		= gd.getNextChoiceIndex() == 1;
+		boolean	live			= gd.getNextBoolean();
+		if (mapIndex == 0)
+			localPearsonMap		(localWindowSize, localMapGated);
+		else if (mapIndex == 1)
+			nmdpImage			(wholeStack, withinRoi);
+		else if (mapIndex == 2)
+			timeSeries			(withinRoi, live);
+		else if (mapIndex == 3)
+			analyzeTargets		(true, null, ";");
+		else if (mapIndex == 4)
+			proposeGatesDialog	();
+		else
+			analyzeFilesDialog	();
+	}
+
+	// Normalized mean deviation product (x - mean_x) (y - mean_y) / ((max_x - mean_x) (max_y - mean_y)) of each pixel, for the current
+	// slice or for all of them, the means and maxima being taken over the whole picture or over the result picture ROI (the pixels
+	// outside of it being then set to NaN). For the current slice they are read from the last exact comparison whenever it analyzed
+	// the same pixels, the other slices getting their own statistics pass.
+	public static ImagePlus nmdpImage(boolean wholeStack, boolean withinRoi)
+	{
+		final int				first		= wholeStack ? 1 : resultImageSlicePosition;
+		final int				nbSlices	= wholeStack ? resultImageSliceNumbers : 1;
+		final int				bandHeight	= 64, nbBands = (h1 + bandHeight - 1) / bandHeight;
+		final RoiSpans			spans		= withinRoi ? getResultImageSpans() : RoiSpans.fromRoi(null, w1, h1);
+		final ChannelView	[][]views		= new ChannelView[nbSlices][];
+		final double		[][]statistics	= new double[nbSlices][];
+		final float			[][]pixels		= new float[nbSlices][w1 * h1];
+		ImageStack				stack		= new ImageStack(w1, h1);
+		ImagePlus				imp;
+		int						s;
+
+		// Statistics of each slice (means and maxima of both channels), one slice per thread
+		new ParallelLoop()
+		{
+			void run(int index)
+			{
+				int				slice		= first + index, px, py, k;
+				ImageProcessor	ip1, ip2;
+				double		[]	shift;
+
+				if (slice == resultImageSlicePosition)
+				{
+					views[index]			= new ChannelView[] {channel1, channel2};
+					if (metrics != null && !metrics.approximate && metrics.slice == slice && withinRoi == (resultImage.getRoi() != null))
+					{
+						statistics[index]	= new double[] {metrics.intensityMean1, metrics.intensityMean2, metrics.intensityMax1, metrics.intensityMax2};
+						return;
+					}
+				}
+				else
+				{
+					ip1						= image1.getStack().getProcessor(slice);
+					ip2						= image2.getStack().getProcessor(slice);
+					shift					= getChannelShift(ip1, ip2, slice);
+					views[index]			= new ChannelView[] {new ChannelView(ip1, 0, 0), new ChannelView(ip2, shift[0], shift[1])};
+				}
+				ColocalizationMoments	mo	= new ColocalizationMoments(minI1, maxI1, minI2, maxI2);
+				for (py = 0; py < h1; py++)
+					for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+						for (px = spans.xStart[k]; px < spans.xEnd[k]; px++)
+							mo.addIntensities(views[index][0].getValue(px, py), views[index][1].getValue(px, py));
+				statistics[index]			= new double[] {mo.sumI1 / mo.nbAnalyzed, mo.sumI2 / mo.nbAnalyzed, mo.maxValue1, mo.maxValue2};
+			}
+		}.start(nbSlices);
+
+		// Output filled by tiles of bandHeight rows of every slice
+		new ParallelLoop()
+		{
+			void run(int tile)
+			{
+				int			index		= tile / nbBands, py, px, k, end = Math.min(h1, (tile % nbBands + 1) * bandHeight);
+				double	[]	st			= statistics[index];
+				double		norm		= (st[2] - st[0]) * (st[3] - st[1]);
+				float	[]	out			= pixels[index];
+
+				for (py = (tile % nbBands) * bandHeight; py < end; py++)
+				{
+					if (withinRoi)
+						Arrays.fill		(out, py * w1, (py + 1) * w1, Float.NaN);
+					for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+						for (px = spans.xStart[k]; px < spans.xEnd[k]; px++)
+							out[py * w1 + px]	= (float) ((views[index][0].getValue(px, py) - st[0]) * (views[index][1].getValue(px, py) - st[1]) / norm);
+				}
+			}
+		}.start(nbSlices * nbBands);
+
+		for (s = 0; s < nbSlices; s++)
+			stack.addSlice				("nMDP " + (first + s), pixels[s]);
+		imp								= new ImagePlus("nMDP of " + titles[i1Index] + " and " + titles[i2Index], stack);
+		imp.getProcessor().setMinAndMax	(-1, 1);
+		imp.setCalibration				(resultImage.getCalibration());
+		showOutput						(imp);
+		return imp;
+	}
+
+	// call("Colocalization_Finder.timeSeriesByMacro", _within_roi, _live);
+	public static String timeSeriesByMacro(String _within_roi, String _live)
+	{
+		ResultsTable	rt		= timeSeries(Boolean.valueOf(_within_roi), Boolean.valueOf(_live));
+
+		return rt.size() > 0 ? rt.getRowAsString(rt.size() - 1) : "";
+	}
+
+	// Colocalization versus time: every frame (at the current z position) of both pictures is analyzed with the current scatterPlot ROI,
+	// Manders thresholds and optionally the result picture ROI, the frames not computed yet for them being computed in parallel, and the
+	// coefficients are written to a table and plotted versus time. In live mode the pictures are polled every second, so that the frames
+	// appended to a growing (virtual) stack or a change of the ROIs are followed without recomputing the finished frames.
+	public static ResultsTable timeSeries(boolean withinRoi, boolean live)
+	{
+		TimeSeriesTask	task;
+
+		timeSeriesWithinRoi		= withinRoi;
+		if (timeSeriesTimer != null)
+			timeSeriesTimer		.stop();
+		timeSeriesTimer			= null;
+
+		task					= new TimeSeriesTask();
+		task.prepare			();
+		task.compute			();
+		if (live)
+		{
+			timeSeriesTimer		= new Timer(1000, new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					updateTimeSeries();
+				}
+			});
+			timeSeriesTimer		.start();
+		}
+		return task.show();
+	}
+
+	// Live update (from the timer): the missing frames are computed in the background, then appended to the table and to the plot
+	static void updateTimeSeries()
+	{
+		final TimeSeriesTask	task;
+
+		if (resultImage == null || resultImage.getWindow() == null)
+		{
+			timeSeriesTimer		.stop();
+			timeSeriesTimer		= null;
+			return;
+		}
+		if (timeSeriesBusy)
+			return;
+		task					= new TimeSeriesTask();
+		if (task.isShown())
+			return;
+		task.prepare			();
+		timeSeriesBusy			= true;
+		new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					task.compute();
+				}
+				finally
+				{
+					EventQueue.invokeLater(new Runnable()
+					{
+						public void run()
+						{
+							timeSeriesBusy	= false;
+							task.show		();
+						}
+					});
+				}
+			}
+		}, "Colocalization Finder time series").start();
+	}
+
+	// Pixel pass of one frame, reading only its own arguments so that the frames can be computed by several threads at once
+	static double[] getFrameCoefficients(ChannelView view1, ChannelView view2, ScatterAxis[] axes, boolean[] gate, RoiSpans spans, double[] thresholds)
+	{
+		ColocalizationMoments	mo				= new ColocalizationMoments(thresholds[0], thresholds[1], thresholds[2], thresholds[3]);
+		double				[]	coefficients	= new double[10];
+		int						size			= axes[0].size, px, py, k, b;
+		float					v1, v2;
+
+		for (py = 0; py < spans.height; py++)
+			for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+				for (px = spans.xStart[k]; px < spans.xEnd[k]; px++)
+				{
+					v1			= view1.getValue(px, py);
+					v2			= view2.getValue(px, py);
+					mo.addIntensities(v1, v2);
+					b			= getBinIndex(v1, v2, axes);
+					if (b >= 0 && gate[b & ~BELOW_MIN])
+					{
+						b		&= ~BELOW_MIN;
+						mo.addGated(axes[0].coordinates[b % (size + 1)], axes[1].coordinates[b / (size + 1)]);
+					}
+				}
+		getCoefficients			(mo, coefficients);
+		return new double[] {coefficients[0], coefficients[1], coefficients[4], coefficients[5], coefficients[8], mo.n};
+	}
+
+	// Stack index of the given z position and (0 based) frame of the displayed channel, the dimensions being read from the copy of the
+	// picture made when the plugin was started since those of a growing stack are only updated once it is complete
+	static int getStackIndex(ImagePlus copy, int z, int frame)
+	{
+		return (frame * copy.getNSlices() + Math.min(z, copy.getNSlices()) - 1) * copy.getNChannels() + copy.getChannel();
+	}
+
+	// Frames currently held by a picture, a growing stack being taken into account as soon as a whole frame has been appended
+	static int getFrameCount(ImagePlus imp, ImagePlus copy)
+	{
+		return Math.max(1, imp.getImageStackSize() / (copy.getNChannels() * copy.getNSlices()));
+	}
+
+	// call("Colocalization_Finder.analyzeChannelsByMacro", _threshold_method, _all_slices);
+	public static void analyzeChannelsByMacro(String _threshold_method, String _all_slices)
+	{
+		analyzeChannels(WindowManager.getCurrentImage(), _threshold_method, Boolean.valueOf(_all_slices));
+	}
+
+	static void analyzeChannelsDialog(ImagePlus imp)
+	{
+		String	[]	methods		= new String[AutoThresholder.getMethods().length + 1];
+		GenericDialog	dialog;
+
+		if (imp == null || imp.getNChannels() < 2)
+		{
+			IJ.showMessage(title, "A multichannel picture is required");
+			return;
+		}
+		methods[0]				= "None";
+		System.arraycopy		(AutoThresholder.getMethods(), 0, methods, 1, methods.length - 1);
+		dialog					= new GenericDialog("Colocalization matrix of " + imp.getTitle());
+		dialog.setIconImage		(icon);
+		dialog.addChoice		("Manders_thresholds", methods, methods[0]);
+		if (imp.getNSlices() > 1)
+			dialog.addCheckbox	("All_slices", false);
+		dialog.showDialog		();
+		if (dialog.wasCanceled())
+			return;
+		analyzeChannels			(imp, dialog.getNextChoice(), imp.getNSlices() > 1 && dialog.getNextBoolean());
+	}
+
+	// Pearson's coefficient, overlap and Manders coefficients of all the channel pairs of a multichannel picture (current frame, current
+	// slice or all of them, within its ROI if any), every channel being read once per pixel: the co-moments of all the pairs are
+	// updated together (Welford's update, stable in a single pass). The Manders thresholds are computed per channel and slice by the
+	// given auto threshold method ("None" meaning above the channel minimum). One row per pair and slice is written to a ResultsTable
+	// and a Pearson/overlap/Manders heat map (M_row,column being the fraction of the row channel colocalizing with the column one) is shown.
+	public static void analyzeChannels(ImagePlus imp, String thresholdMethod, boolean allSlices)
+	{
+		int					nc			= imp.getNChannels(), cell = 32, firstSlice, lastSlice, z, c, d, px, py, k;
+		int					width		= imp.getWidth(), height = imp.getHeight(), frame = imp.getFrame();
+		RoiSpans			spans		= RoiSpans.fromRoi(imp.getRoi() != null && imp.getRoi().isArea() ? imp.getRoi() : null, width, height);
+		ImageProcessor	[]	ips			= new ImageProcessor[nc];
+		double			[]	v			= new double[nc];
+		double			[]	delta		= new double[nc];
+		double			[]	mean		= new double[nc];
+		double			[]	thresholds	= new double[nc];
+		double			[]	mandersDen	= new double[nc];
+		boolean			[]	above		= new boolean[nc];
+		double			[][]coMoments	= new double[nc][nc];
+		double			[][]mandersNum	= new double[nc][nc];
+		double				n, pearson, overlap, sxy, sxx, syy;
+		String				roiName		= imp.getRoi() == null || imp.getRoi().getName() == null ? "-" : imp.getRoi().getName();
+		ResultsTable		rt			= new ResultsTable();
+		ImageStack			maps		= new ImageStack(nc * cell, nc * cell);
+		FloatProcessor		pearsonMap, overlapMap, mandersMap;
+		ImagePlus			mapsImp;
+
+		firstSlice						= allSlices ? 1 : imp.getSlice();
+		lastSlice						= allSlices ? imp.getNSlices() : imp.getSlice();
+		for (z = firstSlice; z <= lastSlice; z++)
+		{
+			for (c = 0; c < nc; c++)
+			{
+				ips[c]					= imp.getStack().getProcessor(imp.getStackIndex(c + 1, z, frame));
+				ips[c]					.setCalibrationTable(imp.getCalibration().getCTable());
+				thresholds[c]			= getChannelThreshold(ips[c], thresholdMethod);
+				mean[c]					= mandersDen[c] = 0;
+				Arrays.fill				(coMoments[c], 0);
+				Arrays.fill				(mandersNum[c], 0);
+			}
+
+			n							= 0;
+			for (py = 0; py < height; py++)
+				for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+					for (px = spans.xStart[k]; px < spans.xEnd[k]; px++)
+					{
+						n				++;
+						for (c = 0; c < nc; c++)
+						{
+							v[c]		= ips[c].getPixelValue(px, py);
+							delta[c]	= v[c] - mean[c];
+							mean[c]		+= delta[c] / n;
+							above[c]	= v[c] > thresholds[c];
+							if (above[c])
+								mandersDen[c]	+= v[c];
+						}
+						for (c = 0; c < nc; c++)
+							for (d = c; d < nc; d++)
+							{
+								coMoments[c][d]	+= delta[c] * (v[d] - mean[d]);
+								if (above[c] && above[d] && c != d)
+								{
+									mandersNum[c][d]	+= v[c];
+									mandersNum[d][c]	+= v[d];
+								}
+							}
+					}
+
+			pearsonMap					= new FloatProcessor(nc, nc);
+			overlapMap					= new FloatProcessor(nc, nc);
+			mandersMap					= new FloatProcessor(nc, nc);
+			for (c = 0; c < nc; c++)
+				for (d = 0; d < nc; d++)
+				{
+					sxy					= c <= d ? coMoments[c][d] : coMoments[d][c];
+					pearson				= sxy / Math.sqrt(coMoments[c][c] * coMoments[d][d]);
+					// raw sums of products recovered from the co-moments and the means
+					overlap				= (sxy + n * mean[c] * mean[d]) / Math.sqrt((coMoments[c][c] + n * mean[c] * mean[c]) * (coMoments[d][d] + n * mean[d] * mean[d]));
+					pearsonMap.setf		(d, c, (float) pearson);
+					overlapMap.setf		(d, c, (float) overlap);
+					mandersMap.setf		(d, c, (float) (c == d ? 1 : mandersNum[c][d] / mandersDen[c]));
+					if (d <= c)
+						continue;
+					rt.incrementCounter	();
+					rt.addValue			("Picture"		, imp.getTitle());
+					rt.addValue			("Slice"		, z);
+					rt.addValue			("ROI"			, roiName);
+					rt.addValue			("Channel_a"	, c + 1);
+					rt.addValue			("Channel_b"	, d + 1);
+					rt.addValue			("Pearson's_Rr"	, pearson);
+					rt.addValue			("Overlap_R"	, overlap);
+					rt.addValue			("M1"			, mandersNum[c][d] / mandersDen[c]);
+					rt.addValue			("M2"			, mandersNum[d][c] / mandersDen[d]);
+					rt.addValue			("Threshold_a"	, thresholds[c]);
+					rt.addValue			("Threshold_b"	, thresholds[d]);
+					rt.addValue			("nb_pixels"	, n);
+				}
+			for (FloatProcessor map : new FloatProcessor[] {pearsonMap, overlapMap, mandersMap})
+			{
+				map.setInterpolationMethod(ImageProcessor.NONE);
+				maps.addSlice			((map == pearsonMap ? "Pearson" : map == overlapMap ? "Overlap" : "Manders") + " z=" + z, map.resize(nc * cell, nc * cell));
+			}
+		}
+		rt.show							("Colocalization Finder Channel Matrix");
+
+		mapsImp							= new ImagePlus("Colocalization matrix of " + imp.getTitle(), maps);
+		mapsImp.getProcessor().setMinAndMax(-1, 1);
+		IJ.run							(mapsImp, "Fire", "");
+		showOutput						(mapsImp);
+	}
+
+	// Manders threshold of a channel: the one given by an auto threshold method, or the channel minimum for "None"
+	static double getChannelThreshold(ImageProcessor ip, String method)
+	{
+		ImageProcessor	copy;
+
+		if (method.equals("None"))
+			return ip.getStatistics().min;
+		copy					= ip.duplicate();
+		copy.setAutoThreshold	(method, true, ImageProcessor.NO_LUT_UPDATE);
+		return ip.getCalibrationTable() == null ? copy.getMinThreshold() : ip.getCalibrationTable()[(int) copy.getMinThreshold()];
+	}
+
+	// call("Colocalization_Finder.getResultsLinesCount");
+	public static String getResultsLinesCount()
+	{
+		ResultsWindow = (TextWindow) WindowManager.getWindow(ResultsTitle);
+		if(ResultsWindow == null)
+			return String.valueOf(0);
+		return String.valueOf(ResultsWindow.getTextPanel().getLineCount());
+	}
+
+	public static String analyzeByMacro(String _write_results, String _set_roi, String _outputIDs, String separator)
+	{
+		int			i, j;
+		int		[]	outputIDs		, outputIDsSub;
+		String	[]	outputIDSplitted, outputIDSplittedSub, outputIDSplittedFull;
+
+		outputIDSplitted	= Tools.split(_outputIDs, ",");
+		for(i = 0; i != outputIDSplitted.length; i++)
+		{
+			if(outputIDSplitted[i].indexOf("-") != -1)
+			{
+				outputIDSplittedSub		= Tools.split(outputIDSplitted[i], "-");
+				outputIDsSub			= new int[2];
+				outputIDsSub[0]			= Integer.valueOf(outputIDSplittedSub[0]);
+				outputIDsSub[1]			= Integer.valueOf(outputIDSplittedSub[1]);
+				Arrays.sort				(outputIDsSub);
+				for(j = i; j != outputIDSplitted.length - 1; j++)
+					outputIDSplitted[j] = outputIDSplitted[j + 1];
+				outputIDSplitted[outputIDSplitted.length - 1] = String.valueOf(outputIDsSub[0]);
+				outputIDSplittedSub		= new String[outputIDsSub[1] - outputIDsSub[0]];
+				for(j = 0; j != outputIDSplittedSub.length; j++)
+					outputIDSplittedSub[j] = String.valueOf(outputIDsSub[0] + 1 + j);
+				outputIDSplittedFull	= Arrays.copyOf(outputIDSplitted, outputIDSplitted.length + outputIDSplittedSub.length);
+				System.arraycopy		(outputIDSplittedSub, 0, outputIDSplittedFull, outputIDSplitted.length, outputIDSplittedSub.length);
+				outputIDSplitted		= outputIDSplittedFull;
+				i--;
+			}
+		}
+		outputIDs			= new int[outputIDSplitted.length];
+		for(i = 0; i != outputIDSplitted.length; i++)
+			outputIDs[i] = Integer.valueOf(outputIDSplitted[i]);
+
+		return analyze(Boolean.valueOf(_write_results), Boolean.valueOf(_set_roi), outputIDs, separator);
+	}
+
+	// call("Colocalization_Finder.setScatterPlotRoi", 0, 500, 100, 200);
+	public static void setScatterPlotRoi(String _minI1, String _maxI1, String _minI2, String _maxI2)
+	{
+		try								{	minI1			= Double.valueOf(_minI1)			;}
+		catch(NumberFormatException e)	{	minI1			= scatterPlotMin1					;}
+
+		try								{	maxI1			= Double.valueOf(_maxI1)			;}
+		catch(NumberFormatException e)	{	maxI1			= scatterPlotMax1					;}
+
+		try								{	minI2			= Double.valueOf(_minI2)			;}
+		catch(NumberFormatException e)	{	minI2			= scatterPlotMin2					;}
+
+		try								{	maxI2			= Double.valueOf(_maxI2)			;}
+		catch(NumberFormatException e)	{	maxI2			= scatterPlotMax2					;}
+
+		setScatterPlotRoi(minI1, maxI1, minI2, maxI2);
+	}
+
+	// call("Colocalization_Finder.setScatterPlotLimits", 0, 500, 100, 200);
+	// call("Colocalization_Finder.setScatterPlotLimits", "0.1%", "99.9%", "0.1%", "99.9%");
+	// a limit ending with % being a percentile of the intensities of the whole stack, see getPercentiles()
+	public static void setScatterPlotLimits(String _scatterPlotMin1, String _scatterPlotMax1, String _scatterPlotMin2, String _scatterPlotMax2)
+	{
+		double		[]	limits1	= getLimits(image1, _scatterPlotMin1, _scatterPlotMax1, min1, max1);
+		double		[]	limits2	= getLimits(image2, _scatterPlotMin2, _scatterPlotMax2, min2, max2);
+
+		setScatterPlotLimits(limits1[0], limits1[1], limits2[0], limits2[1]);
+	}
+
+	// Limits of one picture given as intensities or as percentiles of the whole stack ("0.1%"), the picture range replacing the
+	// invalid ones
+	static double[] getLimits(ImagePlus imp, String _min, String _max, double min, double max)
+	{
+		String		[]	texts		= {_min.trim(), _max.trim()};
+		double		[]	limits		= {min, max};
+		double		[]	percents	= {Double.NaN, Double.NaN};
+		double		[]	values;
+		int				k;
+
+		for (k = 0; k != 2; k++)
+		{
+			try
+			{
+				if (texts[k].endsWith("%"))
+					percents[k]		= Double.valueOf(texts[k].substring(0, texts[k].length() - 1));
+				else
+					limits[k]		= Double.valueOf(texts[k]);
+			}
+			catch(NumberFormatException e)	{}
+		}
+		if (Double.isNaN(percents[0]) && Double.isNaN(percents[1]))
+			return limits;
+		values						= getPercentiles(imp, percents);
+		for (k = 0; k != 2; k++)
+			if (!Double.isNaN(percents[k]))
+				limits[k]			= values[k];
+		return limits;
+	}
+
+	// call("Colocalization_Finder.getPercentilesByMacro", _title, _percents);
+	// _percents: comma separated percentiles (e.g. "0.1,99.9") of the intensities of the whole stack of the picture of title _title
+	// (the current picture when empty), returned comma separated; no scatterPlot is needed, thus also usable in headless batch mode
+	public static String getPercentilesByMacro(String _title, String _percents)
+	{
+		ImagePlus		imp			= _title.trim().length() == 0 ? WindowManager.getCurrentImage() : WindowManager.getImage(_title.trim());
+		String		[]	items		= Tools.split(_percents, ", ");
+		double		[]	percents	= new double[items.length];
+		double		[]	values;
+		StringBuilder	output		= new StringBuilder();
+
+		if (imp == null)
+			return "";
+		for (int k = 0; k != items.length; k++)
+			percents[k]				= Tools.parseDouble(items[k].replace("%", ""), 0);
+		values						= getPercentiles(imp, percents);
+		for (int k = 0; k != values.length; k++)
+			output.append			((k > 0 ? "," : "") + values[k]);
+		return output.toString();
+	}
+
+	// Percentiles (nearest rank) of the intensities of the whole stack, computed in parallel over the slices without sorting them:
+	// integer pictures are counted exactly per intensity; the other ones within 65536 bins over the stack range, the bins holding the
+	// wanted ranks being then counted again twice at finer scales (all the percentiles in the same pass), which bounds the error to the
+	// range / 2^48 whatever the outliers
+	public static double[] getPercentiles(ImagePlus imp, double... percents)
+	{
+		final ImageStack	stack		= imp.getImageStack();
+		final float		[]	calibration	= imp.getProcessor().getCalibrationTable();
+		final boolean		integer		= ScatterAxis.isInteger(imp);
+		double			[]	values		= new double[percents.length];
+		long			[]	ranks		= new long[percents.length];
+		long			[]	below		= new long[percents.length];
+		int				[][]paths		= new int[percents.length][0];
+		double			[]	range;
+		long			[][]counts;
+		long				total		= 0;
+		int					k, b, level;
+		double				width;
+
+		range						= integer ? new double[] {0, imp.getBitDepth() == 8 ? 256 : 65536} : getStackRange(stack, calibration);
+		for (level = 0; level <= (integer ? 0 : 2); level++)
+		{
+			counts					= countStack(stack, calibration, integer, range[0], range[1] - range[0], level == 0 ? new int[][] {{}} : paths);
+			if (level == 0)
+				for (b = 0; b != counts[0].length; b++)
+					total			+= counts[0][b];
+			for (k = 0; k != percents.length; k++)
+			{
+				ranks[k]			= Math.max(1, (long) Math.ceil(Math.max(0, Math.min(100, percents[k])) / 100 * total));
+				for (b = 0; b < counts[level == 0 ? 0 : k].length - 1 && below[k] + counts[level == 0 ? 0 : k][b] < ranks[k]; b++)
+					below[k]		+= counts[level == 0 ? 0 : k][b];
+				paths[k]			= Arrays.copyOf(paths[k], level + 1);
+				paths[k][level]		= b;
+			}
+		}
+		for (k = 0; k != percents.length; k++)
+		{
+			values[k]				= range[0];
+			width					= range[1] - range[0];
+			for (level = 0; level != paths[k].length; level++)
+			{
+				width				/= integer ? width : 65536;
+				values[k]			+= paths[k][level] * width;
+			}
+			values[k]				= Math.min(values[k], range[1]);
+			if (total == 0 || Double.isNaN(percents[k]))
+				values[k]			= Double.NaN;
+		}
+		return values;
+	}
+
+	// Lowest and highest finite intensities of the stack, each thread taking every nb-th slice
+	static double[] getStackRange(final ImageStack stack, final float[] calibration)
+	{
+		final int			nb			= Math.max(1, Math.min(Prefs.getThreads(), stack.getSize()));
+		final double	[][]ranges		= new double[nb][];
+		double			[]	range		= {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+		new ParallelLoop()
+		{
+			void run(int chunk)
+			{
+				double	[]	r		= {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+				double		v;
+
+				for (int slice = chunk + 1; slice <= stack.getSize(); slice += nb)
+				{
+					ImageProcessor	ip	= stack.getProcessor(slice);
+
+					for (int i = 0, n = ip.getPixelCount(); i != n; i++)
+					{
+						v			= calibration == null ? ip.getf(i) : calibration[ip.get(i)];
+						if (Double.isNaN(v) || Double.isInfinite(v))
+							continue;
+						if (v < r[0])
+							r[0]	= v;
+						if (v > r[1])
+							r[1]	= v;
+					}
+				}
+				ranges[chunk]		= r;
+			}
+		}.start(nb);
+		for (double[] r : ranges)
+		{
+			range[0]				= Math.min(range[0], r[0]);
+			range[1]				= Math.max(range[1], r[1]);
+		}
+		return range[0] <= range[1] ? range : new double[] {0, 0};
+	}
+
+	// Counts of the stack intensities, each thread taking every nb-th slice and the counts of the threads being added: per raw intensity
+	// for the integer pictures, otherwise within 65536 bins of [low, low + width] for each path, which gives the bins the intensities
+	// must lie in at the coarser scales (the last bin including low + width at each scale)
+	static long[][] countStack(final ImageStack stack, final float[] calibration, final boolean integer, final double low, final double width, final int[][] paths)
+	{
+		final int			nb			= Math.max(1, Math.min(Prefs.getThreads(), stack.getSize()));
+		final int			nbBins		= integer ? (int) width : 65536;
+		final long		[][][]chunks	= new long[nb][][];
+		long			[][]counts		= new long[paths.length][nbBins];
+
+		new ParallelLoop()
+		{
+			void run(int chunk)
+			{
+				long	[][]c		= new long[paths.length][nbBins];
+				double		v, lo, w;
+				int			b, p, level;
+
+				for (int slice = chunk + 1; slice <= stack.getSize(); slice += nb)
+				{
+					ImageProcessor	ip	= stack.getProcessor(slice);
+
+					for (int i = 0, n = ip.getPixelCount(); i != n; i++)
+					{
+						if (integer)
+						{
+							c[0][ip.get(i)]++;
+							continue;
+						}
+						v			= calibration == null ? ip.getf(i) : calibration[ip.get(i)];
+						if (Double.isNaN(v) || Double.isInfinite(v))
+							continue;
+						for (p = 0; p != paths.length; p++)
+						{
+							lo		= low;
+							w		= width;
+							for (level = 0; level != paths[p].length; level++)
+							{
+								b	= Math.max(0, Math.min(nbBins - 1, (int) ((v - lo) * nbBins / w)));
+								if (b != paths[p][level])
+									break;
+								lo	+= b * w / nbBins;
+								w	/= nbBins;
+							}
+							if (level == paths[p].length)
+								c[p][w > 0 ? Math.max(0, Math.min(nbBins - 1, (int) ((v - lo) * nbBins / w))) : 0]++;
+						}
+					}
+				}
+				chunks[chunk]		= c;
+			}
+		}.start(nb);
+		for (long[][] c : chunks)
+			for (int p = 0; p != paths.length; p++)
+				for (int b = 0; b != nbBins; b++)
+					counts[p][b]	+= c[p][b];
+		return counts;
+	}
+
+	static void setScatterPlotLimits(double _scatterPlotMin1, double _scatterPlotMax1, double _scatterPlotMin2, double _scatterPlotMax2)
+	{
+		scatterPlotMin1				= _scatterPlotMin1;
+		scatterPlotMax1				= _scatterPlotMax1;
+		scatterPlotMin2				= _scatterPlotMin2;
+		scatterPlotMax2				= _scatterPlotMax2;
+		scatterPlotProcessor		.setColor(Color.black);
+		scatterPlotProcessor		.resetRoi();
+		scatterPlotProcessor		.fill();
+		setScatterPlotGraphLimits	();
+		build_plot_for_scatter_plot	();
+		rebuild_scatter_plot		();
+		setScatterPlotRoi			(minI1, maxI1, minI2, maxI2);
+	}
+
+	private static void setScatterPlotGraphLimits()
+	{
+		// 2^32 is no bound for float pictures, whose limits may also be negative: only the missing ones fall back to the picture range
+		if (image1.getBitDepth() == 32)
+		{
+			scatterPlotMin1		= Double.isNaN(scatterPlotMin1)									? min1				: scatterPlotMin1;
+			scatterPlotMax1		= Double.isNaN(scatterPlotMax1)									? max1				: scatterPlotMax1;
+			scatterPlotMin2		= Double.isNaN(scatterPlotMin2)									? min2				: scatterPlotMin2;
+			scatterPlotMax2		= Double.isNaN(scatterPlotMax2)									? max2				: scatterPlotMax2;
+			return;
+		}
+		scatterPlotMin1			= Double.isNaN(scatterPlotMin1)	|| scatterPlotMin1 < 0		? 0					: scatterPlotMin1;
+		scatterPlotMax1			= Double.isNaN(scatterPlotMax1)	|| scatterPlotMax1 > depth1	? depth1			: scatterPlotMax1;
+		scatterPlotMin2			= Double.isNaN(scatterPlotMin2)	|| scatterPlotMin2 < 0		? 0					: scatterPlotMin2;
+		scatterPlotMax2			= Double.isNaN(scatterPlotMax2)	|| scatterPlotMax2 > depth2	? depth2			: scatterPlotMax2;
+	}
+
+	private static void setScatterPlotRoi(double minI1, double maxI1, double minI2, double maxI2)
+	{
+		double			xtemp, ytemp, wtemp, htemp;
+		ScatterAxis	[]	axes;
+
+		minI1					= Double.isNaN(minI1)			|| minI1 < scatterPlotMin1	? scatterPlotMin1	: minI1;
+		maxI1					= Double.isNaN(maxI1)			|| maxI1 > scatterPlotMax1	? scatterPlotMax1	: maxI1;
+		minI2					= Double.isNaN(minI2)			|| minI2 < scatterPlotMin2	? scatterPlotMin2	: minI2;
+		maxI2					= Double.isNaN(maxI2)			|| maxI2 > scatterPlotMax2	? scatterPlotMax2	: maxI2;
+
+		axes					= getScatterAxes();
+		xtemp					=  axes[0].getPosition(minI1) + xOffset;
+		wtemp					=  axes[0].getPosition(maxI1) + xOffset                   + 1 - xtemp;
+		ytemp					= -axes[1].getPosition(maxI2) + yOffset + scatterPlotSize;
+		htemp					= -axes[1].getPosition(minI2) + yOffset + scatterPlotSize + 1 - ytemp;
+
+		scatterPlotRoi			=  new Roi(xtemp, ytemp, wtemp, htemp);
+		scatterPlot				.setRoi(scatterPlotRoi);
+	}
+
+	// Spans of the result image ROI (of the whole picture when there is none), only recomputed when the ROI geometry changes
+	static RoiSpans getResultImageSpans()
+	{
+		String signature		= getRoiSignature(resultImageRoi);
+
+		if (resultImageSpans == null || resultImageSpans.width != w1 || resultImageSpans.height != h1 || !signature.equals(resultImageSpansSignature))
+		{
+			resultImageSpans			= RoiSpans.fromRoi(resultImageRoi, w1, h1);
+			resultImageSpansSignature	= signature;
+		}
+		return resultImageSpans;
+	}
+
+	// Geometry signature of a ROI (type, bounds and outline)
+	static String getRoiSignature(Roi roi)
+	{
+		if (roi == null)
+			return "none";
+		Rectangle		bounds	= roi.getBounds();
+		FloatPolygon	outline	= roi.getFloatPolygon();
+		return roi.getType() + ":" + bounds.x + "," + bounds.y + "," + bounds.width + "," + bounds.height + ":" + outline.npoints + ":" + Arrays.hashCode(outline.xpoints) + ":" + Arrays.hashCode(outline.ypoints);
+	}
+
+	// Lookup table telling, for each (bin1, bin2) scatterPlot bin, whether it lies within the given scatterPlot ROI
+	static boolean[] rasterizeGate(Roi gate)
+	{
+		int				gx, gy, b1, b2;
+		boolean		[]	table		= new boolean[(scatterPlotSize + 1) * (scatterPlotSize + 1)];
+		Rectangle		bounds;
+		ImageProcessor	gateMask;
+
+		if (gate == null)
+			return table;
+		bounds						= gate.getBounds();
+		gateMask					= gate.getMask();
+		for (gy = bounds.y; gy < bounds.y + bounds.height; gy++)
+		{
+			b2						= scatterPlotSize - gy + yOffset;
+			if (b2 < 0 || b2 > scatterPlotSize)
+				continue;
+			for (gx = bounds.x; gx < bounds.x + bounds.width; gx++)
+			{
+				b1					= gx - xOffset;
+				if (b1 >= 0 && b1 <= scatterPlotSize && (gateMask == null || gateMask.get(gx - bounds.x, gy - bounds.y) != 0))
+					table[b2 * (scatterPlotSize + 1) + b1] = true;
+			}
+		}
+		return table;
+	}
+
+	// RoiManager ROIs taken into account by the batch analysis: area ROIs of the result image lying on the current slice (or on all slices)
+	static boolean isAnalysisRoi(Roi roi)
+	{
+		if (isScatterPlotGate(roi) || !roi.isArea())
+			return false;
+		return !roi.hasHyperStackPosition() || roi.getZPosition() == 0 || roi.getZPosition() == resultImageSlicePosition;
+	}
+
+	// The scatterPlot ROIs added to the RoiManager through a Ctrl + mouse click are flagged by a property (or named after their color for older sessions)
+	static boolean isScatterPlotGate(Roi roi)
+	{
+		if ("gate".equals(roi.getProperty(gateProperty)))
+			return true;
+		for (int j = 0; colors != null && j != colors.length; j++)
+			if (colors[j].name.equals(roi.getName()))
+				return true;
+		return false;
+	}
+
+	// Intensity limits {minI1, maxI1, minI2, maxI2} of a scatterPlot ROI given its bounds
+	static double[] getGateLimits(Rectangle coord)
+	{
+		double		[]	limits	= new double[4];
+		ScatterAxis	[]	axes	= getScatterAxes();
+
+		limits[0]				= (int) axes[0].getValue(                  coord.x - xOffset                   );
+		limits[1]				= (int) axes[0].getValue(                  coord.x - xOffset + coord.width  - 1);
+		limits[2]				= (int) axes[1].getValue(scatterPlotSize - coord.y + yOffset - coord.height + 1);
+		limits[3]				= (int) axes[1].getValue(scatterPlotSize - coord.y + yOffset                   );
+		return limits;
+	}
+
+	private static boolean setScatterPlotRoiLimits()
+	{
+		boolean changed			= false;
+
+		scatterPlotRoi			=		scatterPlot		.getRoi();
+		if(scatterPlotRoi == null)
+		{
+			scatterPlotRoi =  new Roi(xOffset, yOffset, scatterPlotSize + 1, scatterPlotSize + 1);
+//			scatterPlotRoi =  new Roi(xOffset + 20, yOffset, 237, 237);
+			scatterPlot.setRoi(scatterPlotRoi);
+		}
+		else
+		{
+			rect				=		scatterPlotRoi	.getBounds();
+			if (rect.width == 0 || rect.height == 0)
+			{
+				scatterPlotRoi =  new Roi(xOffset, yOffset, scatterPlotSize + 1, scatterPlotSize + 1);
+//				scatterPlotRoi =  new Roi(xOffset + 20, yOffset, 237, 237);
+				scatterPlot.setRoi(scatterPlotRoi);
+			}
+		}
+
+		coord					=         scatterPlotRoi.getBounds();
+		double[] limits			= getGateLimits(coord);
+		minI1					= limits[0];
+		maxI1					= limits[1];
+		minI2					= limits[2];
+		maxI2					= limits[3];
+
+		if(!IJ.shiftKeyDown())
+		{
+			if(minI1 < scatterPlotMin1 || minI1 > scatterPlotMax1)
+			{
+				minI1	= scatterPlotMin1;
+				changed	= true;
+			}
+			if(maxI1 < scatterPlotMin1 || maxI1 > scatterPlotMax1)
+			{
+				maxI1	= scatterPlotMax1;
+				changed	= true;
+			}
+			if(minI2 < scatterPlotMin2 || minI2 > scatterPlotMax2)
+			{
+				minI2	= scatterPlotMin2;
+				changed	= true;
+			}
+			if(maxI2 < scatterPlotMin2 || maxI2 > scatterPlotMax2)
+			{
+				maxI2	= scatterPlotMax2;
+				changed	= true;
+			}
+		}
+
+		return changed;
+	}
+
+	static TextWindow getResultsWindow()
+	{
+		ResultsWindow		= (TextWindow) WindowManager.getWindow(ResultsTitle);
+		if(ResultsWindow == null)
+		{
+			ResultsWindow	= new TextWindow(ResultsTitle, ResultsHeadings, "", 1040, 300);
+			ResultsWindow	.setIconImage		(icon);
+		}
+		return ResultsWindow;
+	}
+
+	static String comparison(boolean write_results, boolean set_roi)
+	{
+		return comparison(write_results, set_roi, false);
+	}
+
+	// When preview is set, a stratified subsample of the pixels sized to fit the preview frame time budget is analyzed, the
+	// coefficients and the mask being then flagged as approximate until the exact comparison is run once the drag is released
+	static String comparison(boolean write_results, boolean set_roi, boolean preview)
+	{
+		if(!comparisonRunning)
+			comparisonRunning = true;
+		else
+		{
+			comparisonRunning = false;
+//			IJ.log("comparison already running!");
+			return "comparison already running!";
+		}
+
+		if (Toolbar.getInstance().getToolId() > 4)
+		{
+			gd						= new GenericDialog("Setting analysis ROI");
+			gd.setIconImage			(icon);
+			gd.addMessage			("A Selection Tool needs to be chosen in order to modify the analysis ROI.\r\n\r\n              Do you want the Rectangular_Selection_Tool to be set?");
+			gd.setOKLabel			("Yes");
+			gd.setCancelLabel		("No");
+			gd.showDialog();
+
+			if (gd.wasCanceled())
+				return "";
+
+			Toolbar.getInstance().setTool(Toolbar.RECTANGLE);
+		}
+
+		counter			= 0;
+		long startTime	= System.nanoTime();
+
+		if(setScatterPlotRoiLimits())
+			setScatterPlotRoi(minI1, maxI1, minI2, maxI2);
+
+		resultImageRoi	= resultImage.getRoi();
+		if(resultImageRoi != null)
+		{
+			rect				= resultImageRoi.getBounds();
+			if (rect.width == 0 || rect.height == 0)
+				resultImageRoi = null;
+		}
+
+		// In preview mode the sampling block side is chosen such that the pass fits within the frame time budget; a block side of 1 means the exact pass is affordable anyway
+		previewBlockSize		= preview ? getPreviewBlockSize() : 1;
+		ColocalizationMoments	moments	= new ColocalizationMoments(minI1, maxI1, minI2, maxI2);
+		RoiSpans				spans;
+		boolean					computed	= true;
+
+		if(previewBlockSize > 1)
+			colocMaskRoi		= previewPass(moments, previewBlockSize);
+		else
+		{
+			// Taken from the slice cache when already computed (possibly by the prefetcher) for the same gate, ROI and bins
+			binIndices			= getBinIndices();
+			spans				= getResultImageSpans();
+			computed			= compareSlice(currentSliceData, getComparisonKey(), rasterizeGate(scatterPlotRoi), spans, binIndices, new double[] {minI1, maxI1, minI2, maxI2});
+			synchronized (currentSliceData)
+			{
+				moments			= currentSliceData.moments;
+				maskPixels		= currentSliceData.mask;
+				colocMaskRoi	= currentSliceData.maskRoi;
+			}
+			colocMask			= new ByteProcessor(w1, h1, maskPixels);
+		}
+		counter					= (int) moments.n;
+
+		// The preview mask is built at the sampling block resolution and may thus spill over the ROI outline
+		if (resultImageRoi		!= null && previewBlockSize > 1)
+		{
+			if (resultImageRoi instanceof ShapeRoi)
+				sr1				= (ShapeRoi)resultImageRoi.clone();
+			else
+				sr1				= new ShapeRoi(resultImageRoi);
+
+			if (colocMaskRoi		!= null)
+			{
+				if (colocMaskRoi instanceof ShapeRoi)
+					sr2				= (ShapeRoi)colocMaskRoi.clone();
+				else
+					sr2				= new ShapeRoi(colocMaskRoi);
+
+				colocMaskRoi		= sr1.and(sr2);
+			}
+		}
+
+		if(colocMaskRoi != null)
+			colocMaskRoi		.setFillColor(Colors.decode("#EEFFFFFF", null));
+//		resultImage				.setRoi(colocMaskRoi);
+		resultImageOverlay		= resultImage.getOverlay();
+		if (resultImageOverlay	== null)
+		{
+			resultImageOverlay	= new Overlay();
+			resultImageOverlay	.addElement(colocMaskRoi);
+		}
+		else 
+			resultImageOverlay	.set(colocMaskRoi, 0);
+//			resultImageOverlay	.set(colocMaskRoi, resultImageOverlay.size() - 1);		Generated some bugs thus replaced the 'resultImageOverlay.size() - 1' by '0'
+		resultImage				.setOverlay(resultImageOverlay);
+
+		metrics					= new ColocalizationMetrics(moments, previewBlockSize * previewBlockSize, previewBlockSize > 1);
+		xMean					= metrics.xMean;
+		yMean					= metrics.yMean;
+		xStd					= metrics.xStd;
+		yStd					= metrics.yStd;
+		PearsonValue			= metrics.pearson;
+		PearsonValueAsString	= Math.abs(metrics.pearson) < 1e-3 ? String.format("%.7E", metrics.pearson) : IJ.d2s(metrics.pearson, 8);
+		previewShown			= previewBlockSize > 1;
+		percentPixels			= metrics.percentPixels;
+		cfParams				= new double[] {metrics.intercept, metrics.slope};
+		if (computed)
+			updatePassTiming(System.nanoTime() - startTime, previewBlockSize);
+		if (previewBlockSize == 1)
+			prefetchSlices();
+
+		String	output			= set_roi ? getResultsAsString(";") + ";" + colors[color].name : getResultsAsString(";");
+//		if (write_results &&  IJ.getToolName() != "polygon")
+//		if (write_results && (IJ.getToolName() == "rectangle" || IJ.getToolName() == "roundrect" || IJ.getToolName() == "rotrect" || IJ.getToolName() == "oval" || IJ.getToolName() == "ellipse" || IJ.getToolName() == "brush" || IJ.getToolName() == "freehand" || IJ.getToolName() == "polygon"))
+		if (write_results && Toolbar.getInstance().getToolId() < 4)
+		{
+			getResultsWindow().append(output.replace(";", "\t"));
+			if (bootstrapReplicates > 1 && previewBlockSize == 1)
+				bootstrap(metrics, bootstrapReplicates, bootstrapLevel);
+		}
+
+//		if (set_roi &&  IJ.getToolName() != "polygon")
+//		if (set_roi && (IJ.getToolName() == "rectangle" || IJ.getToolName() == "roundrect" || IJ.getToolName() == "rotrect" || IJ.getToolName() == "oval" || IJ.getToolName() == "ellipse" || IJ.getToolName() == "brush" || IJ.getToolName() == "freehand" || IJ.getToolName() == "polygon"))
+		if (set_roi && Toolbar.getInstance().getToolId() < 4)
+		{
+			scatterPlotRoi		= scatterPlot.getRoi();
+			scatterPlotRoi		.setStrokeColor(colors[color].color);
+			rm					= RoiManager.getInstance();
+			if (rm == null)
+			{
+				rm				= new RoiManager();
+				rm				.setIconImage		(icon);
+			}
+
+			scatterPlotRoi		.setProperty(gateProperty, "gate");
+			rm					.addRoi(scatterPlotRoi);
+			rm					.rename(rm.getCount() - 1, colors[color].name);
+			rm					.runCommand(scatterPlot, "Show All without labels");
+			rm					.runCommand(resultImage, "Show None");	// Line added to get rid of the Rois within the RoiManager which are added by the line "rm.runCommand(i3,"Show All without labels");" in the case imResu is the selected window - And I don't know why!!!
+			scatterPlot			.restoreRoi();
+			scatterPlotRoi		= scatterPlot.getRoi();
+			scatterPlotRoi		.setStrokeColor(Color.yellow);
+
+			resultImageOverlay	= resultImage.getOverlay();
+//			if (resultImageOverlay == null) resultImageOverlay = new Overlay();
+			colocMaskRoi		.setFillColor(colors[color].color);
+//			resultImage			.setRoi(colocMaskRoi);
+			resultImageOverlay	.addElement(colocMaskRoi);
+			resultImage			.setOverlay(resultImageOverlay);
+//			resultImage			.killRoi();
+			color				= color < 4 ? color + 1 : 0;
+		}
+		comparisonRunning		= false;
 
-		try								{	scatterPlotMin2	= Double.valueOf(_scatterPlotMin2)	;}
-		catch(NumberFormatException e)	{	scatterPlotMin2	= min2							;}
+//		statusLabel.setPreferredSize(new Dimension(scatterPlotWindow.getWidth() -  73, statusLabel.getPreferredSize().height));
+//		spaceString = String.format("%1$" +  Math.round(0.047 * scatterPlotWindow.getWidth() - 20) + "s", " ");
 
-		try								{	scatterPlotMax2	= Double.valueOf(_scatterPlotMax2)	;}
-		catch(NumberFormatException e)	{	scatterPlotMax2	= max2								;}
+		updateStatusLabel(metrics);
 
-		scatterPlotProcessor		.setColor(Color.black);
-		scatterPlotProcessor		.resetRoi();
-		scatterPlotProcessor		.fill();
-		setScatterPlotGraphLimits	();
-		build_plot_for_scatter_plot	();
-		rebuild_scatter_plot		();
-		setScatterPlotRoi			(minI1, maxI1, minI2, maxI2);
+		return output;
 	}
 
-	private static void setScatterPlotGraphLimits()
+	private static void updateStatusLabel(ColocalizationMetrics m)
 	{
-		scatterPlotMin1			= Double.isNaN(scatterPlotMin1)	|| scatterPlotMin1 < 0		? 0					: scatterPlotMin1;
-		scatterPlotMax1			= Double.isNaN(scatterPlotMax1)	|| scatterPlotMax1 > depth1	? depth1			: scatterPlotMax1;
-		scatterPlotMin2			= Double.isNaN(scatterPlotMin2)	|| scatterPlotMin2 < 0		? 0					: scatterPlotMin2;
-		scatterPlotMax2			= Double.isNaN(scatterPlotMax2)	|| scatterPlotMax2 > depth2	? depth2			: scatterPlotMax2;
+		if(show_checked == default_checked)
+		{
+			statusBuffer.setLength(0);
+			if(scatterPlotSize == 256)
+				statusBuffer.append( "min1: ").append(Math.round(m.minI1)).append(            "  max1: ").append(Math.round(m.maxI1)).append(            "  min2: ").append(Math.round(m.minI2)).append(            "  max2: ").append(Math.round(m.maxI2));
+			else
+				statusBuffer.append(" Pearson: ").append(IJ.d2s(m.pearson, precision)).append(spaceString).append("minI1: ").append(Math.round(m.minI1)).append(spaceString).append("maxI1: ").append(Math.round(m.maxI1)).append(spaceString).append("minI2: ").append(Math.round(m.minI2)).append(spaceString).append("maxI2: ").append(Math.round(m.maxI2));
+			statusLabel.setText(markApproximate(statusBuffer.toString(), m.approximate));
+		}
+		else
+		{
+			// The label is first rendered with a single space between the items to measure it, and then re-rendered with the padding filling the label width
+			String	str		= getStatusLabelString(m, 1, nbChecked);
+			int		size	= statusLabel.getPreferredSize().width - scatterPlotProcessor.getStringWidth(str) - 100;
+			if (size / (5 * nbChecked) > 0)
+				str = getStatusLabelString(m, size / (5 * nbChecked), nbChecked);
+			statusLabel.setText(markApproximate(str, m.approximate));
+		}
 	}
 
-	private static void setScatterPlotRoi(double minI1, double maxI1, double minI2, double maxI2)
+	// Approximate (preview) coefficients are flagged by a leading '~' within the status label
+	private static String markApproximate(String str, boolean approximate)
 	{
-		double xtemp, ytemp, wtemp, htemp;
+		if (!approximate)
+			return str;
+		return "~" + (str.startsWith(" ") ? str.substring(1) : str);
+	}
 
-		minI1					= Double.isNaN(minI1)			|| minI1 < scatterPlotMin1	? scatterPlotMin1	: minI1;
-		maxI1					= Double.isNaN(maxI1)			|| maxI1 > scatterPlotMax1	? scatterPlotMax1	: maxI1;
-		minI2					= Double.isNaN(minI2)			|| minI2 < scatterPlotMin2	? scatterPlotMin2	: minI2;
-		maxI2					= Double.isNaN(maxI2)			|| maxI2 > scatterPlotMax2	? scatterPlotMax2	: maxI2;
+	private static String getStatusLabelString(ColocalizationMetrics m, int size, int nbChecked)
+	{
+		String	separator		= nbChecked > 5 ? ":" : ": ";
 
-		xtemp					= scatterPlotSize / (scatterPlotMax1 - scatterPlotMin1) * (minI1 - scatterPlotMin1) + xOffset;
-		wtemp					= scatterPlotSize / (scatterPlotMax1 - scatterPlotMin1) * (maxI1 - scatterPlotMin1) + xOffset                   + 1 - xtemp;
-		ytemp					= scatterPlotSize / (scatterPlotMin2 - scatterPlotMax2) * (maxI2 - scatterPlotMin2) + yOffset + scatterPlotSize;
-		htemp					= scatterPlotSize / (scatterPlotMin2 - scatterPlotMax2) * (minI2 - scatterPlotMin2) + yOffset + scatterPlotSize + 1 - ytemp;
+		statusBuffer.setLength(0);
+		if((show_checked & show_Pearson)			!= 0)	appendStatusItem(size, " Pearson"	, separator).append(IJ.d2s(m.pearson		, precision));
+		if((show_checked & show_Overlap)			!= 0)	appendStatusItem(size, " Overlap"	, separator).append(IJ.d2s(m.overlap		, precision));
+		if((show_checked & show_k1)					!= 0)	appendStatusItem(size, " k1"		, separator).append(IJ.d2s(m.k1				, precision));
+		if((show_checked & show_k2)					!= 0)	appendStatusItem(size, " k2"		, separator).append(IJ.d2s(m.k2				, precision));
+		if((show_checked & show_M1)					!= 0)	appendStatusItem(size, " M1"		, separator).append(IJ.d2s(m.m1				, precision));
+		if((show_checked & show_M2)					!= 0)	appendStatusItem(size, " M2"		, separator).append(IJ.d2s(m.m2				, precision));
+		if((show_checked & show_M1_norm)			!= 0)	appendStatusItem(size, " M1_norm"	, separator).append(IJ.d2s(m.m1Norm			, precision));
+		if((show_checked & show_M2_norm)			!= 0)	appendStatusItem(size, " M2_norm"	, separator).append(IJ.d2s(m.m2Norm			, precision));
+		if((show_checked & show_Slope)				!= 0)	appendStatusItem(size, " slope"		, separator).append(IJ.d2s(m.slope			, precision));
+		if((show_checked & show_Intercept)			!= 0)	appendStatusItem(size, " intercept"	, separator).append(IJ.d2s(m.intercept		, precision));
+		if((show_checked & show_nb_pixels)			!= 0)	appendStatusItem(size, " nb_pixels"	, separator).append(m.nbPixels);
+		if((show_checked & show_percentage_pixels)	!= 0)	appendStatusItem(size, " %pixels"	, separator).append(IJ.d2s(m.percentPixels	, precision));
+		if((show_checked & show_min_I1)				!= 0)	appendStatusItem(size, " minI1"		, separator).append((int) m.minI1);
+		if((show_checked & show_max_I1)				!= 0)	appendStatusItem(size, " maxI1"		, separator).append((int) m.maxI1);
+		if((show_checked & show_min_I2)				!= 0)	appendStatusItem(size, " minI2"		, separator).append((int) m.minI2);
+		if((show_checked & show_max_I2)				!= 0)	appendStatusItem(size, " maxI2"		, separator).append((int) m.maxI2);
+
+		return statusBuffer.toString();
+	}
 
-		scatterPlotRoi			=  new Roi(xtemp, ytemp, wtemp, htemp);
-		scatterPlot				.setRoi(scatterPlotRoi);
+	// Appends the padding (except for the first item), the label and the separator of a status label item to the reused status buffer
+	private static StringBuilder appendStatusItem(int size, String label, String separator)
+	{
+		if(statusBuffer.length() > 0)
+			for(int j = 0; j < size; j++)
+				statusBuffer.append(' ');
+		return statusBuffer.append(label).append(separator);
 	}
 
-	private static boolean setScatterPlotRoiLimits()
+	// Block side (in pixels) of the stratified preview sampling: one pixel is analyzed per block so that the pass fits within the frame budget
+	static int getPreviewBlockSize()
 	{
-		boolean changed			= false;
+		double	pixels			= resultImageRoi == null ? (double) w1 * h1 : (double) resultImageRoi.getBounds().width * resultImageRoi.getBounds().height;
+		double	budget			= previewBudget * 1e6;
 
-		scatterPlotRoi			=		scatterPlot		.getRoi();
-		if(scatterPlotRoi == null)
+		if (nsPerPixel <= 0 || pixels * nsPerPixel <= budget)
+			return 1;
+		return Math.max(1, (int) Math.ceil(Math.sqrt(pixels * nsPerPixel / budget)));
+	}
+
+	// Keeps a running estimate of the cost of a pass per analyzed pixel, used for sizing the next preview sample
+	static void updatePassTiming(long elapsed, int blockSize)
+	{
+		double	pixels			= resultImageRoi == null ? (double) w1 * h1 : (double) resultImageRoi.getBounds().width * resultImageRoi.getBounds().height;
+		double	cost			= elapsed / Math.max(1.0, pixels / (blockSize * blockSize));
+
+		nsPerPixel				= nsPerPixel <= 0 ? cost : 0.7 * nsPerPixel + 0.3 * cost;
+	}
+
+	// Analyzes one jittered pixel per blockSize x blockSize block, builds the mask at the block resolution and returns its selection scaled back to the picture size
+	static Roi previewPass(ColocalizationMoments moments, int blockSize)
+	{
+		int		bx, by, px, py, binIndex, jitter;
+		int		bw				= (w1 + blockSize - 1) / blockSize;
+		int		bh				= (h1 + blockSize - 1) / blockSize;
+		byte[]	blockMask		= new byte[bw * bh];
+		Roi		roi;
+		boolean	[]	gate		= rasterizeGate(scatterPlotRoi);
+		int		[]	bins		= getBinIndices();
+		ScatterAxis	[]	axes	= getScatterAxes();
+
+		Arrays.fill(blockMask, (byte) 255);
+		for (by = 0; by < bh; by++)
 		{
-			scatterPlotRoi =  new Roi(xOffset, yOffset, scatterPlotSize + 1, scatterPlotSize + 1);
-//			scatterPlotRoi =  new Roi(xOffset + 20, yOffset, 237, 237);
-			scatterPlot.setRoi(scatterPlotRoi);
+			for (bx = 0; bx < bw; bx++)
+			{
+				// the position within the block is derived from a hash of the block coordinates, so that the sample is stratified, free of grid aliasing, and stable from one frame to the next
+				jitter			= (bx * 73856093) ^ (by * 19349663);
+				px				= Math.min(w1 - 1, bx * blockSize + ((jitter >>> 4) & 0xffff) % blockSize);
+				py				= Math.min(h1 - 1, by * blockSize + ((jitter >>> 20) & 0x7ff) % blockSize);
+				if (resultImageRoi != null && !resultImageRoi.contains(px, py))
+					continue;
+
+				moments.addIntensities(channel1.getValue(px, py), channel2.getValue(px, py));
+				binIndex		= bins[py * w1 + px];
+				if (binIndex >= 0 && gate[binIndex & ~BELOW_MIN])
+				{
+					binIndex	&= ~BELOW_MIN;
+					blockMask[by * bw + bx]	= (byte) 0;
+					moments.addGated(axes[0].coordinates[binIndex % (scatterPlotSize + 1)], axes[1].coordinates[binIndex / (scatterPlotSize + 1)]);
+				}
+			}
 		}
-		else
+
+		colocMask				= new ByteProcessor(bw, bh, blockMask);
+		colocMask				.setBinaryThreshold();
+		ts						= new ThresholdToSelection();
+		roi						= ts.convert(colocMask);
+		return roi == null ? null : RoiScaler.scale(roi, blockSize, blockSize, false);
+	}
+
+	// Pixel access to one channel, translated by (dx, dy) through a bilinear interpolation computed upon each access (clamped to the
+	// picture edges) rather than by resampling a copy of the picture
+	static final class ChannelView
+	{
+		final ImageProcessor	ip;
+		final double			dx, dy;
+		final boolean			shifted;
+
+		ChannelView(ImageProcessor ip, double dx, double dy)
 		{
-			rect				=		scatterPlotRoi	.getBounds();
-			if (rect.width == 0 || rect.height == 0)
+			this.ip				= ip;
+			this.dx				= dx;
+			this.dy				= dy;
+			shifted				= dx != 0 || dy != 0;
+		}
+
+		float getValue(int x, int y)
+		{
+			double	sx, sy, fx, fy;
+			int		x0, y0, x1, y1;
+
+			if (!shifted)
+				return ip.getPixelValue(x, y);
+			sx					= Math.max(0, Math.min(ip.getWidth()	- 1, x + dx));
+			sy					= Math.max(0, Math.min(ip.getHeight()	- 1, y + dy));
+			x0					= (int) sx;
+			y0					= (int) sy;
+			x1					= Math.min(x0 + 1, ip.getWidth()	- 1);
+			y1					= Math.min(y0 + 1, ip.getHeight()	- 1);
+			fx					= sx - x0;
+			fy					= sy - y0;
+			return (float) ((1 - fy) * ((1 - fx) * ip.getPixelValue(x0, y0) + fx * ip.getPixelValue(x1, y0))
+							+	 fy  * ((1 - fx) * ip.getPixelValue(x0, y1) + fx * ip.getPixelValue(x1, y1)));
+		}
+	}
+
+	// Loop over count indices shared among Prefs.getThreads() threads, each thread taking the next index not yet processed
+	static abstract class ParallelLoop
+	{
+		abstract void run(int index);
+
+		void start(final int count)
+		{
+			final AtomicInteger	next		= new AtomicInteger();
+			Thread			[]	threads		= ThreadUtil.createThreadArray(Math.max(1, Math.min(Prefs.getThreads(), count)));
+
+			for (int t = 0; t < threads.length; t++)
+				threads[t]					= new Thread()
+				{
+					public void run()
+					{
+						for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement())
+							ParallelLoop.this.run(index);
+					}
+				};
+			ThreadUtil.startAndJoin(threads);
+		}
+	}
+
+	// Per slice precomputations: wrapped channels, bin indices, scatterPlot histogram and exact comparison, each one with what it was
+	// computed for; the fields are guarded by the instance lock since they are also filled by the prefetcher
+	static final class SliceData
+	{
+		final ChannelView				channel1, channel2;
+		int							[]	binIndices;
+		double						[]	binIndicesKey;
+		int							[]	histogram;
+		RoiSpans						histogramSpans;
+		int							[]	histogramBins;
+		HistogramPyramid				pyramid;
+		RoiSpans						pyramidSpans;
+		ColocalizationMoments			moments;
+		byte						[]	mask;
+		Roi								maskRoi;
+		String							comparisonKey;
+		RoiSpans						comparisonSpans;
+		int							[]	comparisonBins;
+
+		SliceData(ChannelView channel1, ChannelView channel2)
+		{
+			this.channel1		= channel1;
+			this.channel2		= channel2;
+		}
+	}
+
+	// Mapping between the intensities of one channel and the scatterPlot bins 0..size: linear (the original mapping), logarithmic
+	// (log(1 + (intensity - min) / offset), the offset giving about three decades over the range) or quantile based (each bin holding
+	// about as many pixels of the whole stack). The bins of integer intensities are read from a lookup table filled once, the other
+	// ones computed (by a binary search among the bin edges for the quantiles).
+	static final class ScatterAxis
+	{
+		final int					mode, size;
+		final double				min, max, offset;
+		final double			[]	edges;			// lower intensity of each bin, edges[size] being max
+		final double			[]	coordinates;	// lower edge of each bin along the linear axis (in bins), in which the gated moments are computed
+		int						[]	lut;			// bin of each integer intensity from lutMin, null for the other pictures
+		int							lutMin;
+
+		ScatterAxis(int mode, double min, double max, int size, ImagePlus imp)
+		{
+			int						b, j, nBins;
+			long					total = 0, cumulated = 0;
+			long				[]	histogram;
+			double					histMin, histMax;
+
+			this.mode				= mode;
+			this.min				= min;
+			this.max				= max;
+			this.size				= size;
+			offset					= Math.min(1, (max - min) / 1000);
+			edges					= new double[size + 1];
+			coordinates				= new double[size + 1];
+			for (b = 0; b <= size; b++)
+				edges[b]			= mode == 1 ? getValue(b) : min + b * (max - min) / size;
+
+			// Quantile edges from a fine histogram of the whole stack (one bin per intensity for integer pictures)
+			if (mode == 2)
 			{
-				scatterPlotRoi =  new Roi(xOffset, yOffset, scatterPlotSize + 1, scatterPlotSize + 1);
-//				scatterPlotRoi =  new Roi(xOffset + 20, yOffset, 237, 237);
-				scatterPlot.setRoi(scatterPlotRoi);
+				nBins				= isInteger(imp) && max - min < 65536 ? (int) (max - min) + 1 : 65536;
+				histMin				= min;
+				histMax				= isInteger(imp) && max - min < 65536 ? min + nBins : max;
+				histogram			= new StackStatistics(imp, nBins, histMin, histMax).getHistogram();
+				for (j = 0; j != histogram.length; j++)
+					total			+= histogram[j];
+				for (b = 1, j = 0; b < size && total > 0; b++)
+				{
+					while (j < histogram.length && cumulated + histogram[j] < (double) total * b / size)
+						cumulated	+= histogram[j++];
+					edges[b]		= Math.min(max, histMin + (j + 1) * (histMax - histMin) / nBins);
+				}
+			}
+			for (b = 0; b <= size; b++)
+				coordinates[b]		= mode == 0 ? b : (edges[b] - min) * size / (max - min);
+
+			if (isInteger(imp) && max - min < 65536)
+			{
+				lutMin				= (int) Math.ceil(min);
+				lut					= new int[Math.max(0, (int) Math.floor(max) - lutMin + 1)];
+				for (j = 0; j != lut.length; j++)
+					lut[j]			= computeBin(lutMin + j);
 			}
 		}
 
-		coord					=         scatterPlotRoi.getBounds();
-		minI1					= (int) ( scatterPlotMin1 + (                  coord.x - xOffset                   ) * (scatterPlotMax1 - scatterPlotMin1) / scatterPlotSize );
-		maxI1					= (int) ( scatterPlotMin1 + (                  coord.x - xOffset + coord.width  - 1) * (scatterPlotMax1 - scatterPlotMin1) / scatterPlotSize );
-		minI2					= (int) ( scatterPlotMin2 + (scatterPlotSize - coord.y + yOffset - coord.height + 1) * (scatterPlotMax2 - scatterPlotMin2) / scatterPlotSize );
-		maxI2					= (int) ( scatterPlotMin2 + (scatterPlotSize - coord.y + yOffset                   ) * (scatterPlotMax2 - scatterPlotMin2) / scatterPlotSize );
+		static boolean isInteger(ImagePlus imp)
+		{
+			return (imp.getBitDepth() == 8 || imp.getBitDepth() == 16) && imp.getCalibration().getCTable() == null;
+		}
 
-		if(!IJ.shiftKeyDown())
+		// Bin of a value, -1 when the value lies outside of the limits
+		int getBin(double value)
 		{
-			if(minI1 < scatterPlotMin1 || minI1 > scatterPlotMax1)
+			int		v				= (int) value;
+
+			if (!(value >= min && value <= max))
+				return -1;
+			if (lut != null && v == value)
+				return lut[v - lutMin];
+			return computeBin(value);
+		}
+
+		int computeBin(double value)
+		{
+			int		low = 0, high = size, middle;
+
+			switch (mode)
 			{
-				minI1	= scatterPlotMin1;
-				changed	= true;
+				case 1:
+					return Math.min(size, (int) (Math.log1p((value - min) / offset) * size / Math.log1p((max - min) / offset)));
+				case 2:
+					// Highest bin whose lower edge is not above the value
+					while (low < high)
+					{
+						middle		= (low + high + 1) >>> 1;
+						if (edges[middle] <= value)
+							low		= middle;
+						else
+							high	= middle - 1;
+					}
+					return low;
+				default:
+					return (int) ((value - min) * size / (max - min));
 			}
-			if(maxI1 < scatterPlotMin1 || maxI1 > scatterPlotMax1)
+		}
+
+		// Intensity at a (fractional) bin position, the position size being max
+		double getValue(double position)
+		{
+			int		b;
+
+			position				= Math.max(0, Math.min(size, position));
+			switch (mode)
 			{
-				maxI1	= scatterPlotMax1;
-				changed	= true;
+				case 1:
+					return min + offset * Math.expm1(position / size * Math.log1p((max - min) / offset));
+				case 2:
+					b				= Math.min(size - 1, (int) position);
+					return edges[b] + (position - b) * (edges[b + 1] - edges[b]);
+				default:
+					return min + position * (max - min) / size;
 			}
-			if(minI2 < scatterPlotMin2 || minI2 > scatterPlotMax2)
+		}
+
+		// Fractional bin position of an intensity, inverse of getValue()
+		double getPosition(double value)
+		{
+			int		b;
+
+			switch (mode)
 			{
-				minI2	= scatterPlotMin2;
-				changed	= true;
+				case 1:
+					return Math.log1p(Math.max(0, value - min) / offset) * size / Math.log1p((max - min) / offset);
+				case 2:
+					value			= Math.max(min, Math.min(max, value));
+					b				= computeBin(value);
+					return b == size || edges[b + 1] == edges[b] ? b : b + (value - edges[b]) / (edges[b + 1] - edges[b]);
+				default:
+					return (value - min) * size / (max - min);
 			}
-			if(maxI2 < scatterPlotMin2 || maxI2 > scatterPlotMax2)
+		}
+	}
+
+	// Joint histogram of one slice (within some ROI spans) at full intensity resolution: one cell per intensity for the integer pictures,
+	// 4096 cells over the slice range for the other ones, the maximum having a cell of its own. The non empty cells are stored sparsely,
+	// as well as the ones of the coarser levels each merging 2 x 2 cells of the previous level, so that any scatterPlot histogram whose
+	// bins do not split the cells of some level (all the integer limits of integer pictures, whatever the size and the binning) is
+	// aggregated from this level instead of the pixels.
+	static final class HistogramPyramid
+	{
+		static final int			FLOAT_CELLS		= 4096;
+		static final int			MIN_CELLS		= 64;			// along both channels at the coarsest level
+		final int				[]	nbCells			= new int[2];	// regular cells of level 0 along each channel, the maximum being in the next one
+		final double			[]	min				= new double[2];
+		final double			[]	max				= new double[2];
+		final double			[][]low				= new double[2][];	// lowest and highest intensity met in each cell of level 0 (NaN when empty)
+		final double			[][]high			= new double[2][];
+		final long				[][]keys;							// sorted indices (channel 2 cell * cells along channel 1 + channel 1 cell)
+		final int				[][]counts;							// and counts of the non empty cells of each level
+
+		HistogramPyramid(ChannelView channel1, ChannelView channel2, RoiSpans spans, boolean integer1, boolean integer2)
+		{
+			ArrayList<long[]>		levelKeys		= new ArrayList<long[]>();
+			ArrayList<int[]>		levelCounts		= new ArrayList<int[]>();
+			boolean				[]	integer			= {integer1, integer2};
+			int					[]	cells1, cells2, rowFirst, columns, levelCount;
+			long				[]	levelKey, merged;
+			int						px, py, k, i, j, c1, c2, m1, m2, mm1, mm2, n = 0;
+			double					v1, v2;
+
+			Arrays.fill				(min, Double.POSITIVE_INFINITY);
+			Arrays.fill				(max, Double.NEGATIVE_INFINITY);
+			for (py = 0; py < spans.height; py++)
+				for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+					for (px = spans.xStart[k]; px < spans.xEnd[k]; px++)
+					{
+						v1			= channel1.getValue(px, py);
+						v2			= channel2.getValue(px, py);
+						if (Double.isInfinite(v1) || Double.isNaN(v1) || Double.isInfinite(v2) || Double.isNaN(v2))
+							continue;
+						min[0]		= Math.min(min[0], v1);
+						max[0]		= Math.max(max[0], v1);
+						min[1]		= Math.min(min[1], v2);
+						max[1]		= Math.max(max[1], v2);
+						n++;
+					}
+			for (i = 0; i != 2; i++)
 			{
-				maxI2	= scatterPlotMax2;
-				changed	= true;
+				if (n == 0)
+					min[i]			= max[i]	= 0;
+				nbCells[i]			= integer[i] && max[i] - min[i] < 65536 ? Math.max(1, (int) Math.ceil(max[i] - min[i])) : FLOAT_CELLS;
+				low[i]				= new double[nbCells[i] + 1];
+				high[i]				= new double[nbCells[i] + 1];
+				Arrays.fill			(low[i]		, Double.NaN);
+				Arrays.fill			(high[i]	, Double.NaN);
+			}
+
+			// Cells of level 0 of the pixels, grouped by row (channel 2 cell) then sorted and counted row by row
+			m1						= nbCells[0] + 1;
+			m2						= nbCells[1] + 1;
+			cells1					= new int[n];
+			cells2					= new int[n];
+			n						= 0;
+			for (py = 0; py < spans.height; py++)
+				for (k = spans.rowFirst[py]; k < spans.rowFirst[py + 1]; k++)
+					for (px = spans.xStart[k]; px < spans.xEnd[k]; px++)
+					{
+						v1			= channel1.getValue(px, py);
+						v2			= channel2.getValue(px, py);
+						if (Double.isInfinite(v1) || Double.isNaN(v1) || Double.isInfinite(v2) || Double.isNaN(v2))
+							continue;
+						c1			= getCell(0, v1);
+						c2			= getCell(1, v2);
+						low[0][c1]	= !(low[0][c1]	<= v1) ? v1 : low[0][c1];
+						high[0][c1]	= !(high[0][c1]	>= v1) ? v1 : high[0][c1];
+						low[1][c2]	= !(low[1][c2]	<= v2) ? v2 : low[1][c2];
+						high[1][c2]	= !(high[1][c2]	>= v2) ? v2 : high[1][c2];
+						cells1[n]	= c1;
+						cells2[n++]	= c2;
+					}
+			rowFirst				= new int[m2 + 1];
+			for (j = 0; j != n; j++)
+				rowFirst[cells2[j] + 1]++;
+			for (c2 = 0; c2 != m2; c2++)
+				rowFirst[c2 + 1]	+= rowFirst[c2];
+			columns					= new int[n];
+			levelCount				= rowFirst.clone();
+			for (j = 0; j != n; j++)
+				columns[levelCount[cells2[j]]++]	= cells1[j];
+			levelKey				= new long[n];
+			levelCount				= new int[n];
+			i						= 0;
+			for (c2 = 0; c2 != m2; c2++)
+			{
+				Arrays.sort			(columns, rowFirst[c2], rowFirst[c2 + 1]);
+				for (j = rowFirst[c2]; j != rowFirst[c2 + 1]; j++)
+				{
+					if (j == rowFirst[c2] || columns[j] != columns[j - 1])
+						levelKey[i++]	= (long) c2 * m1 + columns[j];
+					levelCount[i - 1]++;
+				}
+			}
+			levelKeys				.add(Arrays.copyOf(levelKey		, i));
+			levelCounts				.add(Arrays.copyOf(levelCount	, i));
+
+			// Coarser levels, the cell of the maximum staying the last one; the indices being then below 2^31, the cells are sorted as
+			// index << 32 | count
+			for (k = 1; Math.max(getCellCount(0, k - 1), getCellCount(1, k - 1)) > MIN_CELLS; k++)
+			{
+				levelKey			= levelKeys		.get(k - 1);
+				levelCount			= levelCounts	.get(k - 1);
+				mm1					= getCellCount(0, k - 1);
+				mm2					= getCellCount(1, k - 1);
+				m1					= getCellCount(0, k);
+				m2					= getCellCount(1, k);
+				merged				= new long[levelKey.length];
+				for (j = 0; j != levelKey.length; j++)
+				{
+					c1				= (int) (levelKey[j] % mm1);
+					c2				= (int) (levelKey[j] / mm1);
+					c1				= c1 == mm1 - 1 ? m1 - 1 : c1 >> 1;
+					c2				= c2 == mm2 - 1 ? m2 - 1 : c2 >> 1;
+					merged[j]		= (long) (c2 * m1 + c1) << 32 | levelCount[j];
+				}
+				Arrays.sort			(merged);
+				levelKey			= new long[merged.length];
+				levelCount			= new int[merged.length];
+				i					= 0;
+				for (j = 0; j != merged.length; j++)
+				{
+					if (j == 0 || merged[j] >>> 32 != merged[j - 1] >>> 32)
+						levelKey[i++]	= merged[j] >>> 32;
+					levelCount[i - 1]	+= (int) merged[j];
+				}
+				levelKeys			.add(Arrays.copyOf(levelKey		, i));
+				levelCounts			.add(Arrays.copyOf(levelCount	, i));
 			}
+			keys					= levelKeys		.toArray(new long	[levelKeys	.size()][]);
+			counts					= levelCounts	.toArray(new int	[levelCounts.size()][]);
 		}
 
-		return changed;
+		// Cell of level 0 of an intensity of channel i
+		int getCell(int i, double value)
+		{
+			if (value >= max[i])
+				return nbCells[i];
+			return Math.max(0, Math.min(nbCells[i] - 1, (int) ((value - min[i]) * nbCells[i] / (max[i] - min[i]))));
+		}
+
+		// Cells of level k along channel i, the last one holding the maximum
+		int getCellCount(int i, int k)
+		{
+			return ((nbCells[i] - 1) >> k) + 2;
+		}
+
+		// Scatterplot histogram of the given axes aggregated from the coarsest level whose cells are not split by the bins, false when
+		// even the cells of level 0 are
+		boolean getHistogram(ScatterAxis[] axes, int[] histogram)
+		{
+			int					k, j, m, b1, b2;
+			int				[]	bins1, bins2;
+
+			for (k = keys.length - 1; k >= 0; k--)
+			{
+				bins1				= getBins(0, k, axes[0]);
+				bins2				= bins1 == null ? null : getBins(1, k, axes[1]);
+				if (bins2 == null)
+					continue;
+				m					= getCellCount(0, k);
+				Arrays.fill			(histogram, 0);
+				for (j = 0; j != keys[k].length; j++)
+				{
+					b1				= bins1[(int) (keys[k][j] % m)];
+					b2				= bins2[(int) (keys[k][j] / m)];
+					if (b1 >= 0 && b2 >= 0)
+						histogram[b2 * (axes[0].size + 1) + b1]	+= counts[k][j];
+				}
+				return true;
+			}
+			return false;
+		}
+
+		// Displayed bin of each cell of level k along channel i (negative when not displayed), null when a cell holds intensities of
+		// different bins, the intensities met in a cell being bounded by the ones of its cells of level 0
+		int[] getBins(int i, int k, ScatterAxis axis)
+		{
+			int					c, j, m		= getCellCount(i, k);
+			int				[]	bins		= new int[m];
+			double			[]	lowest		= new double[m];
+			double			[]	highest		= new double[m];
+
+			Arrays.fill				(lowest		, Double.NaN);
+			Arrays.fill				(highest	, Double.NaN);
+			for (c = 0; c <= nbCells[i]; c++)
+			{
+				if (Double.isNaN(low[i][c]))
+					continue;
+				j					= c == nbCells[i] ? m - 1 : c >> k;
+				lowest[j]			= !(lowest[j]	<= low[i][c])	? low[i][c]		: lowest[j];
+				highest[j]			= !(highest[j]	>= high[i][c])	? high[i][c]	: highest[j];
+			}
+			for (j = 0; j != m; j++)
+			{
+				bins[j]				= Double.isNaN(lowest[j]) ? -1 : getDisplayedBin(axis, lowest[j]);
+				if (!Double.isNaN(lowest[j]) && bins[j] != getDisplayedBin(axis, highest[j]))
+					return null;
+			}
+			return bins;
+		}
+
+		// Bin of an intensity as counted by the scatterPlot histogram, -1 at or below the minimum (see BELOW_MIN), -2 above the maximum
+		static int getDisplayedBin(ScatterAxis axis, double value)
+		{
+			return value <= axis.min ? -1 : value > axis.max ? -2 : axis.getBin(value);
+		}
 	}
 
-	static String comparison(boolean write_results, boolean set_roi)
+	// Values and bins of picture 1 (within the result image ROI) shared by the comparisons of one versus many, see getReferenceChannel()
+	static final class ReferenceChannel
 	{
-		if(!comparisonRunning)
-			comparisonRunning = true;
-		else
+		final String					key;
+		final ImageProcessor			ip;
+		final float					[]	values;
+		final int					[]	bins;
+		final RoiSpans					spans;
+		final ScatterAxis			[]	axes;
+		final double				[]	thresholds;
+
+		ReferenceChannel(String key, ImageProcessor ip, float[] values, int[] bins, RoiSpans spans, ScatterAxis[] axes, double[] thresholds)
 		{
-			comparisonRunning = false;
-//			IJ.log("comparison already running!");
-			return "comparison already running!";
+			this.key			= key;
+			this.ip				= ip;
+			this.values			= values;
+			this.bins			= bins;
+			this.spans			= spans;
+			this.axes			= axes;
+			this.thresholds		= thresholds;
 		}
+	}
 
-		if (Toolbar.getInstance().getToolId() > 4)
+	// One page of a channel read by the batch of file pairs: either a view of the unsigned 16-bit intensities of a mapped TIFF page
+	// (no ImageProcessor being built) or a processor of a picture opened by the ImageJ Opener, read through its calibration table
+	static final class ChannelPlane
+	{
+		final int				width, height;
+		final ShortBuffer		shorts;
+		final ImageProcessor	ip;
+		final float			[]	ctable;
+		ImageProcessor			processor;
+
+		ChannelPlane(int width, int height, ShortBuffer shorts, ImageProcessor ip)
 		{
-			gd						= new GenericDialog("Setting analysis ROI");
-			gd.setIconImage			(icon);
-			gd.addMessage			("A Selection Tool needs to be chosen in order to modify the analysis ROI.\r\n\r\n              Do you want the Rectangular_Selection_Tool to be set?");
-			gd.setOKLabel			("Yes");
-			gd.setCancelLabel		("No");
-			gd.showDialog();
+			this.width			= width;
+			this.height			= height;
+			this.shorts			= shorts;
+			this.ip				= ip;
+			this.ctable			= ip == null ? null : ip.getCalibrationTable();
+			this.processor		= ip;
+		}
 
-			if (gd.wasCanceled())
-				return "";
+		float getValue(int p)
+		{
+			if (shorts != null)
+				return shorts.get(p) & 0xffff;
+			return ctable == null ? ip.getf(p) : ctable[ip.get(p)];
+		}
 
-			Toolbar.getInstance().setTool(Toolbar.RECTANGLE);
+		// Bytes of the page within its file
+		long getByteCount()
+		{
+			return shorts != null ? 2L * width * height : (long) width * height * ip.getBitDepth() / 8;
 		}
 
-		counter			= 0;
+		// Processor of the page (a copy of the mapped intensities), only needed by the phase correlation of the channel alignment
+		ImageProcessor getProcessor()
+		{
+			short	[]	pixels;
 
-		if(setScatterPlotRoiLimits())
-			setScatterPlotRoi(minI1, maxI1, minI2, maxI2);
+			if (processor == null)
+			{
+				pixels			= new short[width * height];
+				shorts.duplicate().get(pixels);
+				processor		= new ShortProcessor(width, height, pixels, null);
+			}
+			return processor;
+		}
+	}
+
+	// Uncompressed 16-bit grayscale TIFF file (classic TIFF, either byte order) whose pages are read in place: the IFDs are parsed and
+	// each page becomes a ShortBuffer view of the file mapped in memory (of a copy of its strips when they are not contiguous). The
+	// other files (compressed, tiled, other bit depths or sample formats, calibrated ImageJ pictures, BigTIFF) are left to the Opener.
+	static final class MappedTiff
+	{
+		final int				width, height;
+		final ShortBuffer	[]	pages;
+
+		int						touched;
+
+		MappedTiff(int width, int height, ShortBuffer[] pages)
+		{
+			this.width			= width;
+			this.height			= height;
+			this.pages			= pages;
+		}
+
+		// Reads one intensity per memory page so that the file is read from the disk now (by the thread of the call) rather than upon
+		// the first accesses of the analysis
+		void load()
+		{
+			int		sum			= 0;
+
+			for (ShortBuffer page : pages)
+				for (int p = 0; p < page.limit(); p += 2048)
+					sum			+= page.get(p);
+			touched				= sum;
+		}
+
+		// null when the file is not an uncompressed 16-bit grayscale TIFF of pages of the same size
+		static MappedTiff open(String path)
+		{
+			FileChannel				channel		= null;
+			ArrayList<ShortBuffer>	pages		= new ArrayList<ShortBuffer>();
+			ByteBuffer				header		= ByteBuffer.allocate(8), entries;
+			MappedByteBuffer		whole		= null;
+			ByteOrder				order;
+			long					size, ifd, position, length;
+			long				[]	offsets, counts;
+			int						width = -1, height = -1, nbEntries, k, s, tag, type;
+			int						pageWidth, pageHeight, bits, compression, samples, photometric, format;
+			String					description;
+			ShortBuffer				page;
+
+			if (!path.toLowerCase().endsWith(".tif") && !path.toLowerCase().endsWith(".tiff"))
+				return null;
+			try
+			{
+				channel						= FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+				size						= channel.size();
+				if (channel.read(header, 0) != 8)
+					return null;
+				if (header.get(0) == 'I' && header.get(1) == 'I')
+					order					= ByteOrder.LITTLE_ENDIAN;
+				else if (header.get(0) == 'M' && header.get(1) == 'M')
+					order					= ByteOrder.BIG_ENDIAN;
+				else
+					return null;
+				header.order				(order);
+				if (header.getShort(2) != 42)
+					return null;
+				if (size <= Integer.MAX_VALUE)
+					whole					= channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				for (ifd = header.getInt(4) & 0xffffffffL; ifd != 0; ifd = entries.getInt(2 + 12 * nbEntries) & 0xffffffffL)
+				{
+					if (ifd + 2 > size)
+						return null;
+					nbEntries				= read(channel, ifd, 2, order).getShort(0) & 0xffff;
+					entries					= read(channel, ifd, 2 + 12 * nbEntries + 4, order);
+					pageWidth				= pageHeight = -1;
+					bits					= compression = samples = photometric = format = 1;
+					offsets					= counts = null;
+					description				= "";
+					for (k = 0; k != nbEntries; k++)
+					{
+						position			= 2 + 12 * k;
+						tag					= entries.getShort((int) position) & 0xffff;
+						type				= entries.getShort((int) position + 2) & 0xffff;
+						switch (tag)
+						{
+							case 256:	pageWidth	= (int) getValues(channel, entries, position, type, order)[0];	break;
+							case 257:	pageHeight	= (int) getValues(channel, entries, position, type, order)[0];	break;
+							case 258:	bits		= (int) getValues(channel, entries, position, type, order)[0];	break;
+							case 259:	compression	= (int) getValues(channel, entries, position, type, order)[0];	break;
+							case 262:	photometric	= (int) getValues(channel, entries, position, type, order)[0];	break;
+							case 273:	offsets		= getValues(channel, entries, position, type, order);			break;
+							case 277:	samples		= (int) getValues(channel, entries, position, type, order)[0];	break;
+							case 279:	counts		= getValues(channel, entries, position, type, order);			break;
+							case 339:	format		= (int) getValues(channel, entries, position, type, order)[0];	break;
+							case 322:	return null;										// tiled
+							case 270:
+								length		= entries.getInt((int) position + 4) & 0xffffffffL;
+								if (length > 4 && length < 65536)
+									description	= new String(read(channel, entries.getInt((int) position + 8) & 0xffffffffL, (int) length, order).array(), "ISO-8859-1");
+								break;
+						}
+					}
+					if (bits != 16 || compression != 1 || samples != 1 || photometric != 1 || format != 1 || description.contains("c0=")
+						|| offsets == null || counts == null || offsets.length != counts.length || pageWidth <= 0 || pageHeight <= 0
+						|| (width >= 0 && (pageWidth != width || pageHeight != height)))
+						return null;
+					width					= pageWidth;
+					height					= pageHeight;
+					length					= 0;
+					for (s = 0; s != offsets.length; s++)
+					{
+						if (offsets[s] + counts[s] > size)
+							return null;
+						if (s > 0 && offsets[s] != offsets[s - 1] + counts[s - 1])
+							length			= -1;
+						else if (length >= 0)
+							length			+= counts[s];
+					}
+					if (length >= 2L * width * height)
+						page				= map(channel, whole, offsets[0], 2L * width * height, order).asShortBuffer();
+					else
+					{
+						ByteBuffer	copy	= ByteBuffer.allocateDirect(2 * width * height).order(order);
+						for (s = 0; s != offsets.length && copy.hasRemaining(); s++)
+							copy.put		(map(channel, whole, offsets[s], Math.min(counts[s], copy.remaining()), order));
+						if (copy.hasRemaining())
+							return null;
+						copy.flip			();
+						page				= copy.asShortBuffer();
+					}
+					pages.add				(page);
+				}
+			}
+			catch (IOException e)		{	return null;	}
+			catch (RuntimeException e)	{	return null;	}
+			finally
+			{
+				try							{	if (channel != null) channel.close();	}
+				catch (IOException e)		{}
+			}
+			return pages.isEmpty() ? null : new MappedTiff(width, height, pages.toArray(new ShortBuffer[pages.size()]));
+		}
+
+		// Bytes of the file read at the given position
+		static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order) throws IOException
+		{
+			ByteBuffer	buffer		= ByteBuffer.allocate(length).order(order);
+
+			while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0);
+			if (buffer.hasRemaining())
+				throw new IOException("Truncated TIFF file");
+			return buffer;
+		}
 
-		resultImageRoi	= resultImage.getRoi();
-		if(resultImageRoi != null)
+		// View of the file bytes [position, position + length[ (within the whole file mapping when there is one)
+		static ByteBuffer map(FileChannel channel, MappedByteBuffer whole, long position, long length, ByteOrder order) throws IOException
 		{
-			rect				= resultImageRoi.getBounds();
-			if (rect.width == 0 || rect.height == 0)
-				resultImageRoi = null;
+			ByteBuffer	buffer;
+
+			if (whole == null)
+				return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(order);
+			buffer					= whole.duplicate();
+			buffer.position			((int) position);
+			buffer.limit			((int) (position + length));
+			return buffer.slice().order(order);
 		}
 
-		if(resultImageRoi == null)
-		{	// There is no ROI within the result image, thus I make the analysis within the whole picture
-			intx = new double[w1 * h1];
-			inty = new double[w1 * h1];
-			lesx = new double[w1 * h1];
-			lesy = new double[w1 * h1];
+		// SHORT or LONG values of an IFD entry, read in place or at the offset they are stored at
+		static long[] getValues(FileChannel channel, ByteBuffer entries, long position, int type, ByteOrder order) throws IOException
+		{
+			int			count		= entries.getInt((int) position + 4), bytes = type == 3 ? 2 : 4, k;
+			long	[]	values		= new long[count];
+			ByteBuffer	buffer;
 
-			for (y = 0; y < h1; y++)
+			if (type != 3 && type != 4 || count <= 0 || count > (1 << 24))
+				throw new IOException("Unsupported TIFF entry");
+			if (count * bytes <= 4)
 			{
-				for (x = 0; x < w1; x++)
-				{
-					pos = y * w1 + x;
-//					vi1					= (int) ( image1Processor.getPixelValue(x, y) * scatterPlotSize / depth1);
-//					vi2					= (int) ( image2Processor.getPixelValue(x, y) * scatterPlotSize / depth2);
-					vi1					= (int) ((image1Processor.getPixelValue(x, y) - scatterPlotMin1) * scatterPlotSize / scatterPlotMax1);
-					vi2					= (int) ((image2Processor.getPixelValue(x, y) - scatterPlotMin2) * scatterPlotSize / scatterPlotMax2);
-					intx[y * w1 + x]	=		  image1Processor.getPixelValue(x, y);
-					inty[y * w1 + x]	=		  image2Processor.getPixelValue(x, y);
-					setMaskPixels();
-				}
+				buffer				= entries.duplicate().order(order);
+				buffer.position		((int) position + 8);
+				buffer				= buffer.slice().order(order);
 			}
+			else
+				buffer				= read(channel, entries.getInt((int) position + 8) & 0xffffffffL, count * bytes, order);
+			for (k = 0; k != count; k++)
+				values[k]			= type == 3 ? buffer.getShort(2 * k) & 0xffff : buffer.getInt(4 * k) & 0xffffffffL;
+			return values;
 		}
-		else
-		{	// There is a ROI within the result image, thus I make the analysis only within the ROI elements
-			pointsInsideRoi = resultImageRoi.getContainedPoints();
-			intx = new double[pointsInsideRoi.length];
-			inty = new double[pointsInsideRoi.length];
-			lesx = new double[pointsInsideRoi.length];
-			lesy = new double[pointsInsideRoi.length];
+	}
 
-			for (i = 0; i != pointsInsideRoi.length; i++)
-			{
-				if(pointsInsideRoi[i].x >= 0 && pointsInsideRoi[i].x < w1 && pointsInsideRoi[i].y >= 0 && pointsInsideRoi[i].y < h1)
-				{
-					pos		= pointsInsideRoi[i].y * w1 + pointsInsideRoi[i].x;
-//					vi1		= (int) ( image1Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y) * scatterPlotSize / depth1);
-//					vi2		= (int) ( image2Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y) * scatterPlotSize / depth2);
-					vi1		= (int) ((image1Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y) - scatterPlotMin1) * scatterPlotSize / scatterPlotMax1);
-					vi2		= (int) ((image2Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y) - scatterPlotMin2) * scatterPlotSize / scatterPlotMax2);
-					intx[i]	=		  image1Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y);
-					inty[i]	= 		  image2Processor.getPixelValue(pointsInsideRoi[i].x, pointsInsideRoi[i].y);
-					setMaskPixels();
-				}
-			}
+	// One pair of files going through the batch pipeline: read by the reading stage, analyzed (the planes being then released) and
+	// written in the order of the indices; END tells a stage that no pair is left
+	static final class FilePair
+	{
+		static final FilePair	END		= new FilePair(-1, null, null);
+		final int				index;
+		final File				file1, file2;
+		ChannelPlane		[]	planes1, planes2;
+		ColocalizationMoments	moments;
+		long					bytes, pixels;					// bytes read, pixels analyzed
+
+		FilePair(int index, File file1, File file2)
+		{
+			this.index			= index;
+			this.file1			= file1;
+			this.file2			= file2;
 		}
-		lesx 					= Arrays.copyOf(lesx, counter);
-		lesy 					= Arrays.copyOf(lesy, counter);
+	}
 
-		colocMask				= new ByteProcessor(w1, h1, maskPixels);
-		colocMask				.setBinaryThreshold();
-		ts						= new ThresholdToSelection();
-		colocMaskRoi			= ts.convert(colocMask);
+	// Statistics of one stage of the batch pipeline: pairs and bytes processed, time spent by its threads on them, and depth of the
+	// queue it feeds sampled before each put (a full queue meaning that the downstream stage is the bottleneck)
+	static final class PipelineStage
+	{
+		final String			name;
+		final int				threads;
+		final AtomicLong		items		= new AtomicLong();
+		final AtomicLong		bytes		= new AtomicLong();
+		final AtomicLong		busy		= new AtomicLong();
+		long					depthSum, depthCount;
+		int						depthMax;
+
+		PipelineStage(String name, int threads)
+		{
+			this.name			= name;
+			this.threads		= threads;
+		}
 
-		if (resultImageRoi		!= null)
+		void addItem(long begin, long itemBytes)
 		{
-			if (resultImageRoi instanceof ShapeRoi)
-				sr1				= (ShapeRoi)resultImageRoi.clone();
-			else
-				sr1				= new ShapeRoi(resultImageRoi);
+			busy				.addAndGet(System.nanoTime() - begin);
+			bytes				.addAndGet(itemBytes);
+			items				.incrementAndGet();
+		}
 
-			if (colocMaskRoi		!= null)
-			{
-				if (colocMaskRoi instanceof ShapeRoi)
-					sr2				= (ShapeRoi)colocMaskRoi.clone();
-				else
-					sr2				= new ShapeRoi(colocMaskRoi);
+		synchronized void sampleQueue(int depth)
+		{
+			depthSum			+= depth;
+			depthCount			++;
+			depthMax			= Math.max(depthMax, depth);
+		}
 
-				colocMaskRoi		= sr1.and(sr2);
-			}
+		synchronized String getStatistics(double seconds, String queueName, int capacity)
+		{
+			String	statistics	= "  " + name + ": " + threads + (threads > 1 ? " threads, " : " thread, ") + IJ.d2s(items.get() / seconds, 2) + " pairs/s";
+
+			if (bytes.get() > 0)
+				statistics		+= ", " + IJ.d2s(bytes.get() / seconds / (1 << 20), 1) + " MB/s";
+			statistics			+= ", busy " + IJ.d2s(100 * busy.get() * 1e-9 / (seconds * threads), 0) + "%";
+			if (queueName != null)
+				statistics		+= ", " + queueName + ": mean " + IJ.d2s(depthCount == 0 ? 0 : (double) depthSum / depthCount, 1) + ", max " + depthMax + " / " + capacity;
+			return statistics;
 		}
+	}
 
-		if(colocMaskRoi != null)
-			colocMaskRoi		.setFillColor(Colors.decode("#EEFFFFFF", null));
-//		resultImage				.setRoi(colocMaskRoi);
-		resultImageOverlay		= resultImage.getOverlay();
-		if (resultImageOverlay	== null)
+	// Inputs of a time series update, captured on the event dispatch thread (pictures, frames, gate, thresholds and ROI spans), the
+	// frames missing from the cache being then computed by compute() from any thread and appended to the table and the plot by show()
+	static final class TimeSeriesTask
+	{
+		final ImagePlus					imp1, imp2;
+		final int						z, nbFrames;
+		final double				[]	binKey, thresholds;
+		final String					key;
+		ImageStack						stack1, stack2;
+		float						[]	calibration1, calibration2;
+		int							[]	indices1, indices2;
+		boolean						[]	gate;
+		ScatterAxis					[]	axes;
+		RoiSpans						spans;
+		double						[][]values;
+
+		TimeSeriesTask()
 		{
-			resultImageOverlay	= new Overlay();
-			resultImageOverlay	.addElement(colocMaskRoi);
+			imp1				= source1;
+			imp2				= source2;
+			z					= resultImageSlicePosition;
+			nbFrames			= Math.min(getFrameCount(source1, image1), getFrameCount(source2, image2));
+			binKey				= getBinIndicesKey();
+			thresholds			= new double[] {minI1, maxI1, minI2, maxI2};
+			key					= imp1.getID() + ":" + imp2.getID() + ":" + z + ":" + getComparisonKey() + ":" + Arrays.toString(binKey) + ":"
+								+ (timeSeriesWithinRoi ? getRoiSignature(resultImageRoi) : "all") + ":" + channelAlignmentIndex;
 		}
-		else 
-			resultImageOverlay	.set(colocMaskRoi, 0);
-//			resultImageOverlay	.set(colocMaskRoi, resultImageOverlay.size() - 1);		Generated some bugs thus replaced the 'resultImageOverlay.size() - 1' by '0'
-		resultImage				.setOverlay(resultImageOverlay);
 
-		percentPixels = ((double) counter / (w1 * h1)) * 100.0;
-		cf = new CurveFitter(lesx, lesy);
-		cf.doFit(CurveFitter.STRAIGHT_LINE);
-		cfParams = cf.getParams();
+		// True when the table already holds all the frames for the same inputs
+		boolean isShown()
+		{
+			ResultsTable	rt	= ResultsTable.getResultsTable(TimeSeriesTitle);
 
-		String	output			= set_roi ? getResultsAsString(";") + ";" + colors[color].name : getResultsAsString(";");
-//		if (write_results &&  IJ.getToolName() != "polygon")
-//		if (write_results && (IJ.getToolName() == "rectangle" || IJ.getToolName() == "roundrect" || IJ.getToolName() == "rotrect" || IJ.getToolName() == "oval" || IJ.getToolName() == "ellipse" || IJ.getToolName() == "brush" || IJ.getToolName() == "freehand" || IJ.getToolName() == "polygon"))
-		if (write_results && Toolbar.getInstance().getToolId() < 4)
+			return rt != null && key.equals(timeSeriesTableKey) && rt.size() == nbFrames;
+		}
+
+		void prepare()
 		{
-			ResultsWindow		= (TextWindow) WindowManager.getWindow(ResultsTitle);
-			if(ResultsWindow == null)
+			stack1				= imp1.getImageStack();
+			stack2				= imp2.getImageStack();
+			calibration1		= imp1.getProcessor().getCalibrationTable();
+			calibration2		= imp2.getProcessor().getCalibrationTable();
+			indices1			= new int[nbFrames];
+			indices2			= new int[nbFrames];
+			for (int f = 0; f < nbFrames; f++)
 			{
-				ResultsWindow	= new TextWindow(ResultsTitle, ResultsHeadings, "", 1040, 300);
-				ResultsWindow	.setIconImage		(icon);
+				indices1[f]		= getStackIndex(image1, z, f);
+				indices2[f]		= getStackIndex(image2, z, f);
 			}
-			ResultsWindow.append(output.replace(";", "\t"));
+			gate				= rasterizeGate(scatterPlotRoi);
+			axes				= getScatterAxes(binKey);
+			spans				= timeSeriesWithinRoi ? getResultImageSpans() : RoiSpans.fromRoi(null, w1, h1);
 		}
 
-//		if (set_roi &&  IJ.getToolName() != "polygon")
-//		if (set_roi && (IJ.getToolName() == "rectangle" || IJ.getToolName() == "roundrect" || IJ.getToolName() == "rotrect" || IJ.getToolName() == "oval" || IJ.getToolName() == "ellipse" || IJ.getToolName() == "brush" || IJ.getToolName() == "freehand" || IJ.getToolName() == "polygon"))
-		if (set_roi && Toolbar.getInstance().getToolId() < 4)
+		void compute()
 		{
-			scatterPlotRoi		= scatterPlot.getRoi();
-			scatterPlotRoi		.setStrokeColor(colors[color].color);
-			rm					= RoiManager.getInstance();
-			if (rm == null)
+			final ArrayList<Integer>	missing		= new ArrayList<Integer>();
+			final double			[][]computed;
+			int							f;
+
+			synchronized (timeSeriesValues)
 			{
-				rm				= new RoiManager();
-				rm				.setIconImage		(icon);
+				if (!key.equals(timeSeriesKey))
+				{
+					timeSeriesValues	.clear();
+					timeSeriesKey		= key;
+				}
+				while (timeSeriesValues.size() < nbFrames)
+					timeSeriesValues	.add(null);
+				for (f = 0; f < nbFrames; f++)
+					if (timeSeriesValues.get(f) == null)
+						missing			.add(f);
 			}
 
-			rm					.addRoi(scatterPlotRoi);
-			rm					.rename(rm.getCount() - 1, colors[color].name);
-			rm					.runCommand(scatterPlot, "Show All without labels");
-			rm					.runCommand(resultImage, "Show None");	// Line added to get rid of the Rois within the RoiManager which are added by the line "rm.runCommand(i3,"Show All without labels");" in the case imResu is the selected window - And I don't know why!!!
-			scatterPlot			.restoreRoi();
-			scatterPlotRoi		= scatterPlot.getRoi();
-			scatterPlotRoi		.setStrokeColor(Color.yellow);
+			// One frame per thread
+			computed					= new double[missing.size()][];
+			new ParallelLoop()
+			{
+				void run(int index)
+				{
+					int				frame	= missing.get(index);
+					ImageProcessor	ip1		= stack1.getProcessor(indices1[frame]);
+					ImageProcessor	ip2		= stack2.getProcessor(indices2[frame]);
+					double		[]	shift;
+
+					ip1.setCalibrationTable	(calibration1);
+					ip2.setCalibrationTable	(calibration2);
+					shift					= getChannelShift(ip1, ip2, imp1.getID() + ":" + imp2.getID() + ":" + indices1[frame]);
+					computed[index]			= getFrameCoefficients(new ChannelView(ip1, 0, 0), new ChannelView(ip2, shift[0], shift[1]), axes, gate, spans, thresholds);
+				}
+			}.start(missing.size());
 
-			resultImageOverlay	= resultImage.getOverlay();
-//			if (resultImageOverlay == null) resultImageOverlay = new Overlay();
-			colocMaskRoi		.setFillColor(colors[color].color);
-//			resultImage			.setRoi(colocMaskRoi);
-			resultImageOverlay	.addElement(colocMaskRoi);
-			resultImage			.setOverlay(resultImageOverlay);
-//			resultImage			.killRoi();
-			color				= color < 4 ? color + 1 : 0;
+			values						= new double[nbFrames][];
+			synchronized (timeSeriesValues)
+			{
+				for (f = 0; f < nbFrames; f++)
+					values[f]			= key.equals(timeSeriesKey) ? timeSeriesValues.get(f) : null;
+				for (f = 0; f < computed.length; f++)
+				{
+					values[missing.get(f)]	= computed[f];
+					if (key.equals(timeSeriesKey))
+						timeSeriesValues.set(missing.get(f), computed[f]);
+				}
+			}
 		}
-		comparisonRunning		= false;
-
-//		statusLabel.setPreferredSize(new Dimension(scatterPlotWindow.getWidth() -  73, statusLabel.getPreferredSize().height));
-//		spaceString = String.format("%1$" +  Math.round(0.047 * scatterPlotWindow.getWidth() - 20) + "s", " ");
 
-		if(show_checked == default_checked)
+		// Appends the frames not written yet to the table (started again when the inputs changed) and draws the curves again
+		ResultsTable show()
 		{
-			if(scatterPlotSize == 256)
-				statusLabel.setText( "min1: "    + Math.round(minI1) +             "  max1: "    + Math.round(maxI1) +             "  min2: "    + Math.round(minI2) +             "  max2: "    + Math.round(maxI2));
+			ResultsTable	rt			= ResultsTable.getResultsTable(TimeSeriesTitle);
+			double			interval	= imp1.getCalibration().frameInterval;
+			String			xLabel		= interval > 0 ? "Time (" + imp1.getCalibration().getTimeUnit() + ")" : "Frame";
+			Plot			plot;
+			double		[]	times;
+			int				f, k;
+
+			if (rt == null || !key.equals(timeSeriesTableKey) || rt.size() > nbFrames)
+			{
+				rt						= new ResultsTable();
+				timeSeriesTableKey		= key;
+			}
+			for (f = rt.size(); f < nbFrames && values[f] != null; f++)
+			{
+				rt.incrementCounter		();
+				rt.addValue				("Frame", f + 1);
+				if (interval > 0)
+					rt.addValue			("Time", f * interval);
+				for (k = 0; k < timeSeriesLabels.length; k++)
+					rt.addValue			(timeSeriesLabels[k], values[f][k]);
+			}
+			rt.show						(TimeSeriesTitle);
+			if (rt.size() == 0)
+				return rt;
+
+			times						= rt.getColumnAsDoubles(rt.getColumnIndex(interval > 0 ? "Time" : "Frame"));
+			plot						= new Plot(TimeSeriesTitle + " Plot", xLabel, "coefficient");
+			plot.setColor				(Color.black);
+			plot.add					("line", times, rt.getColumnAsDoubles(rt.getColumnIndex("Pearson's_Rr")));
+			plot.setColor				(Color.red);
+			plot.add					("line", times, rt.getColumnAsDoubles(rt.getColumnIndex("M1")));
+			plot.setColor				(Color.green);
+			plot.add					("line", times, rt.getColumnAsDoubles(rt.getColumnIndex("M2")));
+			plot.addLegend				("Pearson's_Rr\nM1\nM2");
+			if (timeSeriesPlotWindow != null && timeSeriesPlotWindow.isVisible())
+				timeSeriesPlotWindow.drawPlot(plot);
 			else
-//				statusLabel.setText(" minI1: " + Math.round(minI1) + spaceString + "maxI1: " + Math.round(maxI1) + spaceString + "minI2: " + Math.round(minI2) + spaceString + "maxI2: " + Math.round(maxI2));
-				statusLabel.setText(" Pearson: " + IJ.d2s(PearsonValue, precision) + spaceString + "minI1: " + Math.round(minI1) + spaceString + "maxI1: " + Math.round(maxI1) + spaceString + "minI2: " + Math.round(minI2) + spaceString + "maxI2: " + Math.round(maxI2));
+				timeSeriesPlotWindow	= plot.show();
+			return rt;
 		}
-		else
-		{
-			String	str		= getStatusLabelString(1, nbChecked);
-			int		size	= statusLabel.getPreferredSize().width - scatterPlotProcessor.getStringWidth(str) - 100;
-			if (size / (5 * nbChecked) > 0)
-				str = getStatusLabelString(size / (5 * nbChecked), nbChecked);
-			statusLabel.setText(str);
-		}
-
-		return output;
 	}
 
-	private static String getStatusLabelString(int size, int nbChecked)
+	// Horizontal runs of the pixels of a ROI clipped to the picture: the runs of row y are [xStart[k], xEnd[k][ for k from
+	// rowFirst[y] to rowFirst[y + 1] - 1, sorted by xStart. A null ROI gives one run per row covering the whole picture.
+	static final class RoiSpans
 	{
-		boolean	passed_first	= false;
-		String	str				= "";
-		String	separator		= nbChecked > 5 ? ":" : ": ";
+		final int		width, height;
+		final int	[]	rowFirst, xStart, xEnd;
+		final long		pixelCount;
 
-		if((show_checked & show_Pearson)			!= 0)
+		private RoiSpans(int width, int height, int[] rowFirst, int[] xStart, int[] xEnd, long pixelCount)
 		{
-				passed_first	= true;
-				str +=											" Pearson"		+ separator + IJ.d2s(PearsonValue					, precision);
+			this.width			= width;
+			this.height			= height;
+			this.rowFirst		= rowFirst;
+			this.xStart			= xStart;
+			this.xEnd			= xEnd;
+			this.pixelCount		= pixelCount;
 		}
-		if((show_checked & show_Overlap)			!= 0)
+
+		static RoiSpans fromRoi(Roi roi, int width, int height)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" Overlap"		+ separator + IJ.d2s(getOverlap(lesx, lesy)			, precision);
-			else
+			int				px, py, start, count;
+			boolean			inside;
+			long			pixels		= 0;
+			int			[]	rowFirst	= new int[height + 1];
+			int			[]	xStart		= new int[Math.max(16, height)];
+			int			[]	xEnd		= new int[xStart.length];
+			Rectangle		bounds		= roi == null ? new Rectangle(0, 0, width, height) : roi.getBounds();
+			ImageProcessor	roiMask		= roi == null ? null : roi.getMask();
+			byte		[]	mask		= roiMask == null ? null : (byte[]) roiMask.getPixels();
+			int				maskWidth	= roiMask == null ? 0 : roiMask.getWidth();
+			int				x0			= Math.max(0, bounds.x);
+			int				x1			= Math.min(width, bounds.x + bounds.width);
+
+			count						= 0;
+			for (py = 0; py < height; py++)
 			{
-				passed_first	= true;
-				str +=											" Overlap"		+ separator + IJ.d2s(getOverlap(lesx, lesy)			, precision);
+				rowFirst[py]			= count;
+				if (py < bounds.y || py >= bounds.y + bounds.height || x0 >= x1)
+					continue;
+				start					= -1;
+				for (px = x0; px <= x1; px++)
+				{
+					inside				= px < x1 && (mask == null || mask[(py - bounds.y) * maskWidth + px - bounds.x] != 0);
+					if (inside && start < 0)
+						start			= px;
+					else if (!inside && start >= 0)
+					{
+						if (count == xStart.length)
+						{
+							xStart		= Arrays.copyOf(xStart, 2 * count);
+							xEnd		= Arrays.copyOf(xEnd  , 2 * count);
+						}
+						xStart[count]	= start;
+						xEnd  [count]	= px;
+						pixels			+= px - start;
+						count++;
+						start			= -1;
+					}
+				}
 			}
+			rowFirst[height]			= count;
+			return new RoiSpans(width, height, rowFirst, Arrays.copyOf(xStart, count), Arrays.copyOf(xEnd, count), pixels);
 		}
-		if((show_checked & show_k1)					!= 0)
+
+		// Number of pixels of these spans which are not within the other ones
+		long differenceSize(RoiSpans other)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" k1"			+ separator + IJ.d2s(getContrib(lesx, lesy)			, precision);
-			else
-			{
-				passed_first	= true;
-				str +=											" k1"			+ separator + IJ.d2s(getContrib(lesx, lesy)			, precision);
-			}
+			long size					= 0;
+
+			for (int py = 0; py < height; py++)
+				size					+= rowDifference(other, py, null, null, 0);
+			return size;
 		}
-		if((show_checked & show_k2)					!= 0)
+
+		// Adds delta to the histogram bins of the displayed pixels of these spans which are not within the other ones (all of them when other is null)
+		void addDifference(RoiSpans other, int[] bins, int[] histogram, int delta)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" k2"			+ separator + IJ.d2s(getContrib(lesy, lesx)			, precision);
-			else
-			{
-				passed_first	= true;
-				str +=											" k2"			+ separator + IJ.d2s(getContrib(lesy, lesx)			, precision);
-			}
+			for (int py = 0; py < height; py++)
+				rowDifference(other, py, bins, histogram, delta);
 		}
 
-		if((show_checked & show_M1)					!= 0)
+		// Sweeps the runs of row py minus the runs of the other spans on the same row, returning the number of pixels left and
+		// updating the histogram with them when given
+		private long rowDifference(RoiSpans other, int py, int[] bins, int[] histogram, int delta)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" M1"			+ separator + IJ.d2s(getManders(intx, inty, minI1, minI2)	, precision);
-			else
+			int		k, o, start, end, px, binIndex;
+			int		oEnd	= other == null ? 0 : other.rowFirst[py + 1];
+			long	size	= 0;
+
+			o						= other == null ? 0 : other.rowFirst[py];
+			for (k = rowFirst[py]; k < rowFirst[py + 1]; k++)
 			{
-				passed_first	= true;
-				str +=											" M1"			+ separator + IJ.d2s(getManders(intx, inty, minI1, minI2)	, precision);
+				start				= xStart[k];
+				end					= xEnd[k];
+				while (start < end)
+				{
+					// skip the runs of the other spans lying before the current position
+					while (o < oEnd && other.xEnd[o] <= start)
+						o++;
+					px				= o < oEnd ? Math.min(end, Math.max(start, other.xStart[o])) : end;
+					size			+= px - start;
+					if (histogram != null)
+					{
+						for (int p = py * width + start; p < py * width + px; p++)
+						{
+							binIndex	= bins[p];
+							if (binIndex >= 0 && (binIndex & BELOW_MIN) == 0)
+								histogram[binIndex] += delta;
+						}
+					}
+					start			= o < oEnd ? Math.max(px, Math.min(end, other.xEnd[o])) : end;
+				}
 			}
+			return size;
 		}
-		if((show_checked & show_M2)					!= 0)
+	}
+
+	// Static 2D k-d tree of points, stored as a permutation of the point indices recursively partitioned around the median of
+	// alternately x and y; nearest neighbour queries prune the subtrees farther than the best distance found so far
+	static final class KdTree
+	{
+		final double	[]	xs, ys;
+		final int		[]	order;
+
+		KdTree(double[] xs, double[] ys)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" M2"			+ separator + IJ.d2s(getManders(inty, intx, minI2, minI1)	, precision);
-			else
-			{
-				passed_first	= true;
-				str +=											" M2"			+ separator + IJ.d2s(getManders(inty, intx, minI2, minI1)	, precision);
-			}
+			this.xs				= xs;
+			this.ys				= ys;
+			order				= new int[xs.length];
+			for (int k = 0; k < order.length; k++)
+				order[k]		= k;
+			build(0, order.length, 0);
 		}
 
-		if((show_checked & show_M1_norm)			!= 0)
+		private double coordinate(int index, int axis)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" M1_norm"		+ separator + IJ.d2s(getMandersNorm(intx, inty, minI1, minI2)	, precision);
-			else
-			{
-				passed_first	= true;
-				str +=											" M1_norm"		+ separator + IJ.d2s(getMandersNorm(intx, inty, minI1, minI2)	, precision);
-			}
+			return axis == 0 ? xs[index] : ys[index];
 		}
-		if((show_checked & show_M2_norm)			!= 0)
+
+		// Quickselect of the median of order[from, to) along axis, then recursion on both halves with the other axis
+		private void build(int from, int to, int axis)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" M2_norm"		+ separator + IJ.d2s(getMandersNorm(inty, intx, minI2, minI1)	, precision);
-			else
+			int		median		= (from + to) >>> 1, left = from, right = to - 1, k, store, swap;
+			double	pivot;
+
+			if (to - from <= 1)
+				return;
+			while (left < right)
 			{
-				passed_first	= true;
-				str +=											" M2_norm"		+ separator + IJ.d2s(getMandersNorm(inty, intx, minI2, minI1)	, precision);
+				k				= (left + right) >>> 1;
+				pivot			= coordinate(order[k], axis);
+				swap = order[k]; order[k] = order[right]; order[right] = swap;
+				store			= left;
+				for (k = left; k < right; k++)
+					if (coordinate(order[k], axis) < pivot)
+					{
+						swap = order[k]; order[k] = order[store]; order[store] = swap;
+						store++;
+					}
+				swap = order[store]; order[store] = order[right]; order[right] = swap;
+				if (store == median)
+					break;
+				if (store < median)
+					left		= store + 1;
+				else
+					right		= store - 1;
 			}
+			build(from, median, 1 - axis);
+			build(median + 1, to, 1 - axis);
 		}
 
-		if((show_checked & show_Slope)				!= 0)
+		// Squared distance from (x, y) to the nearest point within order[from, to), best being the current best squared distance
+		private double nearest(double x, double y, int from, int to, int axis, double best)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" slope"		+ separator + IJ.d2s(cfParams[1]								, precision);
-			else
+			int		median		= (from + to) >>> 1;
+			double	dx, dy, delta, d;
+
+			if (from >= to)
+				return best;
+			dx					= xs[order[median]] - x;
+			dy					= ys[order[median]] - y;
+			d					= dx * dx + dy * dy;
+			if (d < best)
+				best			= d;
+			delta				= axis == 0 ? dx : dy;
+			if (delta > 0)
 			{
-				passed_first	= true;
-				str +=											" slope"		+ separator + IJ.d2s(cfParams[1]								, precision);
+				best			= nearest(x, y, from, median, 1 - axis, best);
+				if (delta * delta < best)
+					best		= nearest(x, y, median + 1, to, 1 - axis, best);
 			}
-		}
-		if((show_checked & show_Intercept)			!= 0)
-		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" intercept"	+ separator + IJ.d2s(cfParams[0]								, precision);
 			else
 			{
-				passed_first	= true;
-				str +=											" intercept"	+ separator + IJ.d2s(cfParams[0]								, precision);
+				best			= nearest(x, y, median + 1, to, 1 - axis, best);
+				if (delta * delta < best)
+					best		= nearest(x, y, from, median, 1 - axis, best);
 			}
+			return best;
 		}
-		if((show_checked & show_nb_pixels)			!= 0)
+
+		// Sorted nearest neighbour distances of the query points (infinite when the tree is empty)
+		double[] getNearestDistances(double[] qxs, double[] qys)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" nb_pixels"	+ separator + Math.round(counter);
-			else
-			{
-				passed_first	= true;
-				str +=											" nb_pixels"	+ separator + Math.round(counter);
-			}
+			double	[]	distances	= new double[qxs.length];
+
+			for (int k = 0; k < qxs.length; k++)
+				distances[k]	= Math.sqrt(nearest(qxs[k], qys[k], 0, order.length, 0, Double.POSITIVE_INFINITY));
+			Arrays.sort			(distances);
+			return distances;
 		}
-		if((show_checked & show_percentage_pixels)	!= 0)
+	}
+
+	// Running sums of one comparison pass: the moments of the scatterPlot coordinates of the gated pixels and the Manders sums of the analyzed pixels intensities
+	static final class ColocalizationMoments
+	{
+		final double	minI1, maxI1, minI2, maxI2;		// limits of the scatterPlot ROI, the lower ones being the Manders thresholds
+		long			n;
+		double			sx, sy, sxx, syy, sxy;
+		double			m1Num, m1Den, m2Num, m2Den;
+		long			m1NormNum, m1NormDen, m2NormNum, m2NormDen;
+		long			nbAnalyzed;										// all the analyzed pixels, gated or not
+		double			sumI1, sumI2;
+		double			maxValue1		= Double.NEGATIVE_INFINITY, maxValue2 = Double.NEGATIVE_INFINITY;
+
+		ColocalizationMoments(double minI1, double maxI1, double minI2, double maxI2)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") + " %pixels"		+ separator + IJ.d2s(percentPixels								, precision);
-			else
-			{
-				passed_first	= true;
-				str +=											" %pixels"		+ separator + IJ.d2s(percentPixels								, precision);
-			}
+			this.minI1			= minI1;
+			this.maxI1			= maxI1;
+			this.minI2			= minI2;
+			this.maxI2			= maxI2;
 		}
-		if((show_checked & show_min_I1)				!= 0)
+
+		void addGated(double x, double y)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" minI1"		+ separator + Integer.toString((int) minI1);
-			else
-			{
-				passed_first	= true;
-				str +=											" minI1"		+ separator + Integer.toString((int) minI1);
-			}
+			n++;
+			sx					+= x;
+			sy					+= y;
+			sxx					+= x * x;
+			syy					+= y * y;
+			sxy					+= x * y;
 		}
-		if((show_checked & show_max_I1)				!= 0)
+
+		void addIntensities(double v1, double v2)
 		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" maxI1"		+ separator + Integer.toString((int) maxI1);
-			else
+			nbAnalyzed			++;
+			sumI1				+= v1;
+			sumI2				+= v2;
+			if (v1 > maxValue1)
+				maxValue1		= v1;
+			if (v2 > maxValue2)
+				maxValue2		= v2;
+			if (v1 > minI1)
 			{
-				passed_first	= true;
-				str +=											" maxI1"		+ separator + Integer.toString((int) maxI1);
+				if (v2 > minI2)
+				{
+					m1Num		+= v1;
+					m1NormNum	++;
+				}
+				m1Den			+= v1;
+				m1NormDen		++;
 			}
-		}
-		if((show_checked & show_min_I2)				!= 0)
-		{
-			if(passed_first)
-				str += String.format("%1$" + size + "s", " ") +	" minI2"		+ separator + Integer.toString((int) minI2);
-			else
+			if (v2 > minI2)
 			{
-				passed_first	= true;
-				str +=											" minI2"		+ separator + Integer.toString((int) minI2);
+				if (v1 > minI1)
+				{
+					m2Num		+= v2;
+					m2NormNum	++;
+				}
+				m2Den			+= v2;
+				m2NormDen		++;
 			}
 		}
-		if((show_checked & show_max_I2)				!= 0)
-			str += String.format("%1$" + size + "s", " ") +		" maxI2"		+ separator + Integer.toString((int) maxI2);
-
-		return str;
-	}
 
-	static void setMaskPixels()
-	{
-		if (scatterPlotRoi.contains(vi1 + xOffset, scatterPlotSize - vi2 + yOffset))
+		void add(ColocalizationMoments other)
 		{
-			maskPixels	[pos]		= (byte) 0;
-			lesx		[counter]	= vi1;
-			lesy		[counter]	= vi2;
-			counter++;
+			n					+= other.n;
+			sx					+= other.sx;
+			sy					+= other.sy;
+			sxx					+= other.sxx;
+			syy					+= other.syy;
+			sxy					+= other.sxy;
+			m1Num				+= other.m1Num;
+			m1Den				+= other.m1Den;
+			m2Num				+= other.m2Num;
+			m2Den				+= other.m2Den;
+			m1NormNum			+= other.m1NormNum;
+			m1NormDen			+= other.m1NormDen;
+			m2NormNum			+= other.m2NormNum;
+			m2NormDen			+= other.m2NormDen;
+			nbAnalyzed			+= other.nbAnalyzed;
+			sumI1				+= other.sumI1;
+			sumI2				+= other.sumI2;
+			maxValue1			= Math.max(maxValue1, other.maxValue1);
+			maxValue2			= Math.max(maxValue2, other.maxValue2);
 		}
-		else
-			maskPixels	[pos]		= (byte) 255;
 	}
 
 	static double getOverlap(double[] d1, double[] d2)
@@ -1311,8 +5605,10 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		int y1					= yOffset - 2;
 		int y2					= yOffset + 2 + scatterPlotSize;
 		int i1, i2, y, digits;
-		double  xScale, yScale, xStep, yStep;
+		double  xStep, yStep;
 		double v;
+		double[] ticks;
+		ScatterAxis[] axes = getScatterAxes();
 		String str;
 		Line	LineRoi;
 		Roi		RectRoi;
@@ -1346,17 +5642,19 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		RectRoi.setName("Frame border");
 		scatterplotOverlay.add(RectRoi);
 
-		// Along X Axis
-		xScale	= scatterPlotSize / (scatterPlotMax1 - scatterPlotMin1);
+		// Along X Axis (the ticks of the log and quantile axes being evenly spaced along the bins, without minor ticks)
 		xStep	= Math.abs((scatterPlotMax1 - scatterPlotMin1) * Math.max(1.0 / maxIntervals, (double) MIN_X_GRIDSPACING / scatterPlotSize + 0.06));	// the smallest allowable step
 		xStep	= niceNumber(xStep);
 		i1		= (int) Math.ceil (scatterPlotMin1 / xStep - 1.e-10);
 		i2		= (int) Math.floor(scatterPlotMax1 / xStep + 1.e-10);
 		digits	= getDigits(scatterPlotMin1, scatterPlotMax1, xStep, 7);
+		ticks	= axes[0].mode == 0 ? null : getAxisTicks(axes[0], (int) (1 / Math.max(1.0 / maxIntervals, (double) MIN_X_GRIDSPACING / scatterPlotSize + 0.06)));
+		if (ticks != null)
+			i2	= i1 + ticks.length - 1;
 		for (int i = 0; i <= (i2 - i1); i++)
 		{
-			v = (i + i1) * xStep;
-			x = (int) Math.round((v - scatterPlotMin1) * xScale) + xOffset - 1;
+			v = ticks == null ? (i + i1) * xStep : ticks[i];
+			x = (int) Math.round(axes[0].getPosition(v)) + xOffset - 1;
 			// X major ticks
 //			scatterPlotProcessor.drawLine(x, y1, x, y1 - tickLength);
 			LineRoi = Line.create(x, y1, x, y1 - tickLength);
@@ -1369,7 +5667,7 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 			LineRoi.setName("X major ticks low"  + (i + 1));
 			scatterplotOverlay.add(LineRoi);
 			// X numbers
-			str = IJ.d2s(v, digits);
+			str = IJ.d2s(v, ticks == null ? digits : getTickDigits(v));
 			textRoi = TextRoi.create(str,x - scatterPlotProcessor.getStringWidth(str) / 2, yOfXAxisNumbers, font);
 			textRoi.setStrokeColor(new Color(255, 255, 255));
 			textRoi.setName("X numbers labels"   + (i + 1));
@@ -1378,11 +5676,11 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		// X minor ticks
 		xStep	= niceNumber(xStep * 0.19);
 		i1		= (int) Math.ceil (scatterPlotMin1 / xStep - 1.e-10);
-		i2		= (int) Math.floor(scatterPlotMax1 / xStep + 1.e-10);
+		i2		= ticks == null ? (int) Math.floor(scatterPlotMax1 / xStep + 1.e-10) : i1 - 1;
 		for (int i = i1; i <= i2; i++)
 		{
 			v = i * xStep;
-			x = (int) Math.round((v - scatterPlotMin1) * xScale) + xOffset - 1;
+			x = (int) Math.round(axes[0].getPosition(v)) + xOffset - 1;
 //			scatterPlotProcessor.drawLine(x, y1, x, y1 - minorTickLength);
 			LineRoi = Line.create(x, y1, x, y1 - minorTickLength);
 			LineRoi.setStrokeColor(new Color(255, 255, 255));
@@ -1396,16 +5694,18 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		}
 
 		// Along Y Axis
-		yScale	= scatterPlotSize / (scatterPlotMax2 - scatterPlotMin2);
 		yStep	= Math.abs((scatterPlotMax2 - scatterPlotMin2) * Math.max(1.0 / maxIntervals, (double) MIN_Y_GRIDSPACING / scatterPlotSize + 0.06)); // the smallest allowable step
 		yStep	= niceNumber(yStep);
 		i1		= (int) Math.ceil (scatterPlotMin2 / yStep - 1.e-10);
 		i2		= (int) Math.floor(scatterPlotMax2 / yStep + 1.e-10);
 		digits	= getDigits(scatterPlotMin2, scatterPlotMax2, yStep, 5);
+		ticks	= axes[1].mode == 0 ? null : getAxisTicks(axes[1], (int) (1 / Math.max(1.0 / maxIntervals, (double) MIN_Y_GRIDSPACING / scatterPlotSize + 0.06)));
+		if (ticks != null)
+			i2	= i1 + ticks.length - 1;
 		for (int i = i1; i <= i2; i++)
 		{
-			v = yStep == 0 ? scatterPlotMin2 : i * yStep;
-			y = yOffset + scatterPlotSize + 1 - (int) Math.round((v - scatterPlotMin2) * yScale);
+			v = ticks != null ? ticks[i - i1] : yStep == 0 ? scatterPlotMin2 : i * yStep;
+			y = yOffset + scatterPlotSize + 1 - (int) Math.round(axes[1].getPosition(v));
 			// Y major ticks
 //			scatterPlotProcessor.drawLine(x1, y, x1 - tickLength, y);
 			LineRoi = Line.create(x1, y, x1 - tickLength, y);
@@ -1418,7 +5718,7 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 			LineRoi.setName("Y major ticks low"  + i);
 			scatterplotOverlay.add(LineRoi);
 			// Y numbers
-			str = IJ.d2s(v, digits);
+			str = IJ.d2s(v, ticks == null ? digits : getTickDigits(v));
 			textRoi = TextRoi.create(str,LEFT_MARGIN - scatterPlotProcessor.getStringWidth(str), y	+ fontAscent * 2 / 3, font);
 			textRoi.setStrokeColor(new Color(255, 255, 255));
 			textRoi.setName("Y numbers labels"   + i);
@@ -1428,11 +5728,11 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		// Y minor ticks
 		yStep	= 		niceNumber	(yStep * 0.19);
 		i1		= (int)	Math.ceil	(scatterPlotMin2 / yStep - 1.e-10);
-		i2		= (int)	Math.floor	(scatterPlotMax2 / yStep + 1.e-10);
+		i2		= ticks == null ? (int) Math.floor(scatterPlotMax2 / yStep + 1.e-10) : i1 - 1;
 		for (int i = i1; i <= i2; i++)
 		{
 			v = i * yStep;
-			y = yOffset + scatterPlotSize + 1 - (int) Math.round((v - scatterPlotMin2) * yScale);
+			y = yOffset + scatterPlotSize + 1 - (int) Math.round(axes[1].getPosition(v));
 //			scatterPlotProcessor.drawLine(x1, y, x1 - minorTickLength, y);
 			LineRoi = Line.create(x1, y, x1 - minorTickLength, y);
 			LineRoi.setStrokeColor(new Color(255, 255, 255));
@@ -1491,6 +5791,34 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 
 	/* end methods from ij.gui.Plot */
 
+	// Major tick values of a log or quantile axis, evenly spaced along the bins and rounded to two significant digits (inwards at both ends)
+	static double[] getAxisTicks(ScatterAxis axis, int nbIntervals)
+	{
+		double		[]	ticks	= new double[Math.max(1, nbIntervals) + 1];
+		double			v, scale, rounded;
+		int				n		= 0;
+
+		nbIntervals				= ticks.length - 1;
+		for (int k = 0; k <= nbIntervals; k++)
+		{
+			v					= axis.getValue((double) k * axis.size / nbIntervals);
+			scale				= v == 0 ? 1 : Math.pow(10, Math.floor(Math.log10(Math.abs(v))) - 1);
+			rounded				= Math.round(v / scale) * scale;
+			if (rounded > axis.max)
+				rounded			= Math.floor(v / scale) * scale;
+			if (rounded < axis.min)
+				rounded			= Math.ceil (v / scale) * scale;
+			if (n == 0 || rounded > ticks[n - 1])
+				ticks[n++]		= rounded;
+		}
+		return Arrays.copyOf(ticks, n);
+	}
+
+	static int getTickDigits(double v)
+	{
+		return v == 0 ? 0 : getDigits(v, Math.pow(10, Math.floor(Math.log10(Math.abs(v))) - 1), 5);
+	}
+
 	private void setScatterPlotRoiSetting()
 	{
 		boolean[] selectedItemsValues = { (show_checked & show_Pearson) != 0, (show_checked & show_Overlap) != 0, (show_checked & show_k1) != 0, (show_checked & show_k2) != 0, (show_checked & show_M1) != 0, (show_checked & show_M2) != 0, (show_checked & show_M1_norm) != 0, (show_checked & show_M2_norm) != 0, (show_checked & show_Slope) != 0, (show_checked & show_Intercept) != 0, (show_checked & show_nb_pixels) != 0, (show_checked & show_percentage_pixels) != 0, (show_checked & show_min_I1) != 0, (show_checked & show_max_I1) != 0, (show_checked & show_min_I2) != 0, (show_checked & show_max_I2) != 0 };
@@ -1517,6 +5845,16 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		gd.addMessage			("It is recommand to not choose more than\n   5 items in order to avoid overlapping"	, new Font("SansSerif", Font.PLAIN, 15), Color.RED);
 		gd.addCheckboxGroup		(8, 2, selectedItemsLabels, selectedItemsValues);
 		gd.addNumericField		("Decimal places (0-9):", precision, 0, 2, "");
+		gd.addChoice			("ScatterPlot_display", scatterPlotLutText, scatterPlotLutText[scatterPlotLutIndex]);
+		gd.addChoice			("ScatterPlot_binning", scatterAxisText, scatterAxisText[scatterAxisIndex]);
+		gd.addNumericField		("Gamma:", scatterPlotGamma, 2);
+		gd.addNumericField		("Bootstrap_replicates (0 = none):", bootstrapReplicates, 0);
+		gd.addNumericField		("Confidence_level (%):", bootstrapLevel, 1);
+		gd.addNumericField		("Spot_distance (pixels):", objectDistance, 1);
+		gd.addChoice			("Channel_alignment", channelAlignmentText, channelAlignmentText[channelAlignmentIndex]);
+		gd.addNumericField		("Local_map_window (pixels):", localWindowSize, 0);
+		gd.addChoice			("Local_map_pixels", localMapPixelsText, localMapPixelsText[localMapGated ? 1 : 0]);
+		gd.addNumericField		("CCF_max_shift (pixels):", ccfMaxShift, 0);
 		gd.enableYesNoCancel	();
 		gd.enableYesNoCancel	("OK", "Reset");
 
@@ -1565,6 +5903,30 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 			if(gd.getNextBoolean())	show_checked |= show_max_I2;
 
 			precision				= (int) gd.getNextNumber();
+			scatterPlotLutIndex		= gd.getNextChoiceIndex();
+			scatterAxisIndex		= gd.getNextChoiceIndex();
+			// Invalid values keep the previous ones: a gamma <= 0 would push the display values beyond 255, the confidence level must
+			// lie within ]0, 100[ %, the spot distance and the CCF shifts be >= 0 and the local map window hold at least 3 x 3 pixels
+			double	gamma			= gd.getNextNumber();
+			double	replicates		= gd.getNextNumber();
+			double	level			= gd.getNextNumber();
+			double	distance		= gd.getNextNumber();
+			int		alignment		= gd.getNextChoiceIndex();
+			double	window			= gd.getNextNumber();
+			scatterPlotGamma		= Double.isNaN(gamma)		|| gamma <= 0					? scatterPlotGamma		: gamma;
+			bootstrapReplicates		= Double.isNaN(replicates)	|| replicates < 0				? bootstrapReplicates	: (int) Math.min(replicates, 1000000);
+			bootstrapLevel			= Double.isNaN(level)		|| level <= 0 || level >= 100	? bootstrapLevel		: level;
+			objectDistance			= Double.isNaN(distance)	|| distance < 0					? objectDistance		: distance;
+			localWindowSize			= Double.isNaN(window)		|| window < 3					? localWindowSize		: (int) Math.min(window, Math.max(w1, h1));
+			localMapGated			= gd.getNextChoiceIndex() == 1;
+			double	shift			= gd.getNextNumber();
+			ccfMaxShift				= Double.isNaN(shift)		|| shift < 0					? ccfMaxShift			: (int) Math.min(shift, w1 - 1);
+			if (alignment != channelAlignmentIndex)
+			{
+				channelAlignmentIndex	= alignment;
+				clearSliceCache		();
+				updateChannels		();
+			}
 		}
 		else
 		{
@@ -1625,12 +5987,38 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 					image2					.setSlice(resultImageSlicePosition);
 					image1Processor			= image1.getProcessor();
 					image2Processor			= image2.getProcessor();
+					updateChannels			();
 
 					rebuild_scatter_plot();
 					comparison(false, false);
 				}
 	}
 
+	// The background thread may display an approximate preview, which the mouse and key releases replace by the exact pass at once;
+	// since the scatterPlot ROI may also be modified by a macro or the RoiManager, the exact pass is also run once the ROI has not been
+	// modified for 300 ms (put off while a pass or a modification is pending)
+	void scheduleExactPass()
+	{
+		if (exactPassTimer == null)
+		{
+			exactPassTimer		= new Timer(300, new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					if (comparisonRunning || scatterPlotModified)
+						exactPassTimer.restart();
+					else if (previewShown)
+					{
+						comparison(false, false);
+						scatterPlot.draw();
+					}
+				}
+			});
+			exactPassTimer		.setRepeats(false);
+		}
+		exactPassTimer			.restart();
+	}
+
 	public void imageClosed(ImagePlus imp)
 	{
 /*
@@ -1682,6 +6070,7 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 					}
 					else
 						notify();
+					scheduleExactPass();
 				}
 //				else if (id == CREATED)
 //				{	
@@ -1811,6 +6200,11 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 			rebuild_scatter_plot();
 			comparison(false, false);
 		}
+		else if (previewShown)
+		{
+			comparison(false, false);
+			scatterPlot.draw();
+		}
 	}
 
 	public void mouseMoved(MouseEvent evt)
@@ -1825,14 +6219,14 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 			coord			= scatterPlotRoi.getBounds();
 			roiWidth		= coord.width;
 			roiHeight		= coord.height;
-			scatterPlotRoi	.setLocation(         Math.round((image1Processor.getPixelValue(resultImage.getCanvas().offScreenX(evt.getX()), resultImage.getCanvas().offScreenY(evt.getY())) * scatterPlotSize / scatterPlotMax1) + xOffset - roiWidth  / 2),
-								scatterPlotSize - Math.round((image2Processor.getPixelValue(resultImage.getCanvas().offScreenX(evt.getX()), resultImage.getCanvas().offScreenY(evt.getY())) * scatterPlotSize / scatterPlotMax2) - yOffset + roiHeight / 2));
+			scatterPlotRoi	.setLocation(         Math.round(getScatterAxes()[0].getPosition(channel1.getValue(resultImage.getCanvas().offScreenX(evt.getX()), resultImage.getCanvas().offScreenY(evt.getY()))) + xOffset - roiWidth  / 2),
+								scatterPlotSize - Math.round(getScatterAxes()[1].getPosition(channel2.getValue(resultImage.getCanvas().offScreenX(evt.getX()), resultImage.getCanvas().offScreenY(evt.getY()))) - yOffset + roiHeight / 2));
 			scatterPlot		.killRoi();
 			scatterPlot		.restoreRoi();
 			comparison(false, false);
 /*
-			i3.setRoi(Math.round(image1Processor.getPixelValue(canvasResu.offScreenX(evt.getX()) , canvasResu.offScreenY(evt.getY())) + xOffset - widthR  / 2)
-			  , scatterPlotSize - Math.round(image2Processor.getPixelValue(canvasResu.offScreenX(evt.getX()) , canvasResu.offScreenY(evt.getY())) - yOffset + heightR / 2)
+			i3.setRoi(Math.round(channel1.getValue(canvasResu.offScreenX(evt.getX()) , canvasResu.offScreenY(evt.getY())) + xOffset - widthR  / 2)
+			  , scatterPlotSize - Math.round(channel2.getValue(canvasResu.offScreenX(evt.getX()) , canvasResu.offScreenY(evt.getY())) - yOffset + heightR / 2)
 			  , widthR, heightR);
 */
 		}
@@ -1840,15 +6234,88 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 
 	public void mouseDragged(MouseEvent e) {}
 
+	// Over the scatterPlot, the wheel zooms around the pointed intensities, pans along channel 1 with shift or along channel 2 with
+	// alt, within the intensity range of the pictures; the new histogram is then aggregated from the histogram pyramid of the slice
+	// whenever its cells are fine enough for the new bins, see getPyramidHistogram()
+	public void mouseWheelMoved(MouseWheelEvent evt)
+	{
+		ScatterAxis		[]	axes		= getScatterAxes();
+		double			[]	limits		= {scatterPlotMin1, scatterPlotMax1, scatterPlotMin2, scatterPlotMax2};
+		double			[]	range		= {min1, max1, min2, max2};
+		double				factor		= Math.pow(1.25, evt.getWheelRotation());
+		double				centre, shift;
+		int					i;
+
+		for (i = 0; i != 2; i++)
+		{
+			if (evt.isShiftDown() || evt.isAltDown())
+			{
+				if (evt.isShiftDown() != (i == 0))
+					continue;
+				shift				= 0.1 * evt.getWheelRotation() * (limits[2 * i + 1] - limits[2 * i]);
+				shift				= Math.max(range[2 * i] - limits[2 * i], Math.min(range[2 * i + 1] - limits[2 * i + 1], shift));
+				limits[2 * i]		+= shift;
+				limits[2 * i + 1]	+= shift;
+			}
+			else
+			{
+				centre				= i == 0	? axes[0].getValue(canvas.offScreenX(evt.getX()) - xOffset)
+												: axes[1].getValue(scatterPlotSize - canvas.offScreenY(evt.getY()) + yOffset);
+				limits[2 * i]		= Math.max(range[2 * i]		, centre - (centre - limits[2 * i]) * factor);
+				limits[2 * i + 1]	= Math.min(range[2 * i + 1]	, centre + (limits[2 * i + 1] - centre) * factor);
+			}
+			if (ScatterAxis.isInteger(i == 0 ? image1 : image2))
+			{
+				limits[2 * i]		= Math.round(limits[2 * i]);
+				limits[2 * i + 1]	= Math.max(limits[2 * i] + 1, Math.round(limits[2 * i + 1]));
+			}
+			if (!(limits[2 * i + 1] > limits[2 * i]))
+				return;
+		}
+		if (!Arrays.equals(limits, new double[] {scatterPlotMin1, scatterPlotMax1, scatterPlotMin2, scatterPlotMax2}))
+			setScatterPlotLimits(limits[0], limits[1], limits[2], limits[3]);
+	}
+
 	public void keyPressed(KeyEvent e)
 	{
 		int keyCode = e.getKeyCode();
 //		e.consume();
 
-		if (keyCode == e.VK_G)	// g, q or u
+		// g: scatterPlot settings, u: RoiManager ROIs, q: scatterPlot gates, 6: threshold sweep, 7: objects, 8: cross-correlation,
+		// 9: scatterPlot counts export, 0: maps dialog, numeric pad 4/6 and 2/8: channel 1 and 2 histograms. Digits are used rather than
+		// the plain letters bound to ImageJ commands (such as w, o, v or e), since ImageJ also receives the keys of these windows.
+		if (keyCode == e.VK_G)
 		{
 			setScatterPlotRoiSetting();
 		}
+		else if (keyCode == KeyEvent.VK_U)
+		{
+			analyzeRoiManager(true, ";");
+		}
+		else if (keyCode == KeyEvent.VK_Q)
+		{
+			analyzeGates(true, ";");
+		}
+		else if (keyCode == KeyEvent.VK_9)
+		{
+			exportScatterPlotCounts();
+		}
+		else if (keyCode == KeyEvent.VK_6)
+		{
+			thresholdSweep(1, true);
+		}
+		else if (keyCode == KeyEvent.VK_7)
+		{
+			analyzeObjects(objectDistance, true);
+		}
+		else if (keyCode == KeyEvent.VK_8)
+		{
+			crossCorrelation(ccfMaxShift, resultImage.getRoi() != null, true);
+		}
+		else if (keyCode == KeyEvent.VK_0)
+		{
+			showMapsDialog();
+		}
 		else if (keyCode == KeyEvent.VK_NUMPAD4 || keyCode == KeyEvent.VK_NUMPAD6)
 		{
 			long	[] hist1 = image1Statistics.getHistogram();
@@ -1914,6 +6381,11 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 			rebuild_scatter_plot();
 			comparison(false, false);
 		}
+		else if (previewShown)
+		{
+			comparison(false, false);
+			scatterPlot.draw();
+		}
 	}
 
 	public void keyTyped(KeyEvent e) {}
@@ -1947,8 +6419,6 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 
 	public static String getResultsAsString(String separator)
 	{
-		PearsonValue			= Double.isNaN(getR(lesx, lesy))			? 0										: getR(lesx, lesy);
-		PearsonValueAsString	= Math.abs(PearsonValue) < 1e-3				? String.format("%.7E", PearsonValue)	: IJ.d2s(PearsonValue, 8);
 		if (resultImage.getRoi() == null)
 			resultImageRoiName	= "-";
 		else if (resultImage.getRoi().getName()	== null)
@@ -1956,36 +6426,99 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		else
 			resultImageRoiName	= resultImage.getRoi().getName();
 
-		sstr	= resultImage			.getImageStack().getSliceLabel(1)					+ separator
-				+ resultImage			.getImageStack().getSliceLabel(2)					+ separator;
+		return getResultsAsString(metrics, resultImage.getImageStack().getSliceLabel(1), resultImage.getImageStack().getSliceLabel(2), resultImageRoiName, separator);
+	}
+
+	// Renders a results row from a metrics snapshot, the slice column being only written when the analyzed pictures are stacks
+	static String getResultsAsString(ColocalizationMetrics m, String picture1Name, String picture2Name, String roiName, String separator)
+	{
+		StringBuilder sb		= new StringBuilder(256);
 
+		sb		.append(picture1Name)																	.append(separator)
+				.append(picture2Name)																	.append(separator);
 		if (resultImageSliceNumbers > 1)
-		sstr	+=resultImageSlicePosition													+ separator;
-
-		return	  sstr
-				+ resultImageRoiName														+ separator
-				+ PearsonValueAsString														+ separator
-				+ IJ.d2s			(	xMean										, 8	)	+ separator
-				+ IJ.d2s			(	yMean										, 8	)	+ separator
-				+ IJ.d2s			(	xStd										, 8	)	+ separator
-				+ IJ.d2s			(	yStd										, 8	)	+ separator
-				+ IJ.d2s			(	getOverlap		(lesx, lesy)				, 8	)	+ separator
-				+ IJ.d2s			(	getContrib		(lesx, lesy)				, 8	)	+ separator
-				+ IJ.d2s			(	getContrib		(lesy, lesx)				, 8	)	+ separator
-				+ IJ.d2s			(	getManders		(intx, inty, minI1, minI2)	, 8	)	+ separator
-				+ IJ.d2s			(	getManders		(inty, intx, minI2, minI1)	, 8	)	+ separator
-				+ IJ.d2s			(	getMandersNorm	(intx, inty, minI1, minI2)	, 8	)	+ separator
-				+ IJ.d2s			(	getMandersNorm	(inty, intx, minI2, minI1)	, 8	)	+ separator
-				+ IJ.d2s			(	cfParams[1]									, 5	)	+ separator
-				+ IJ.d2s			(	cfParams[0]									, 5	)	+ separator
-				+ Integer.toString	(			counter									)	+ separator
-				+ IJ.d2s			(	percentPixels								, 4	)	+ separator
-				+ Integer.toString	((int)	(	minI1	)								)	+ separator
-				+ Integer.toString	((int)	(	maxI1	)								)	+ separator
-				+ Integer.toString	((int)	(	minI2	)								)	+ separator
-				+ Integer.toString	((int)	(	maxI2	)								)	+ separator
-				+ IJ.d2s			(	getMean(lesx) * scatterPlotMax1 / 255		, 5	)	+ separator
-				+ IJ.d2s			(	getMean(lesy) * scatterPlotMax2 / 255		, 5	)	;
+		sb		.append(m.slice)																		.append(separator);
+		sb		.append(roiName)																		.append(separator)
+				.append(Math.abs(m.pearson) < 1e-3		? String.format("%.7E", m.pearson)	: IJ.d2s(m.pearson, 8))	.append(separator)
+				.append(IJ.d2s			(	m.xMean						, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.yMean						, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.xStd						, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.yStd						, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.overlap					, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.k1						, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.k2						, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.m1						, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.m2						, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.m1Norm					, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.m2Norm					, 8	))						.append(separator)
+				.append(IJ.d2s			(	m.slope						, 5	))						.append(separator)
+				.append(IJ.d2s			(	m.intercept					, 5	))						.append(separator)
+				.append(					m.nbPixels						)						.append(separator)
+				.append(IJ.d2s			(	m.percentPixels				, 4	))						.append(separator)
+				.append((int)			(	m.minI1							))						.append(separator)
+				.append((int)			(	m.maxI1							))						.append(separator)
+				.append((int)			(	m.minI2							))						.append(separator)
+				.append((int)			(	m.maxI2							))						.append(separator)
+				.append(IJ.d2s			(	m.average1					, 5	))						.append(separator)
+				.append(IJ.d2s			(	m.average2					, 5	));
+
+		return sb.toString();
+	}
+
+	// Immutable snapshot of all the coefficients of one update, computed once and then only rendered by the status label and the results row
+	static final class ColocalizationMetrics
+	{
+		final double	pearson, xMean, yMean, xStd, yStd;
+		final double	overlap, k1, k2, m1, m2, m1Norm, m2Norm, slope, intercept;
+		final double	percentPixels, minI1, maxI1, minI2, maxI2, average1, average2;
+		final double	intensityMean1, intensityMean2, intensityMax1, intensityMax2;		// over all the analyzed pixels, gated or not
+		final long		nbPixels;
+		final int		slice;
+
+		final boolean	approximate;
+
+		// Snapshot of the moments of a comparison pass, weight being the number of pixels each analyzed pixel stands for (greater than 1 for a preview)
+		ColocalizationMetrics(ColocalizationMoments mo, double weight, boolean approximate)
+		{
+			this(mo, weight, approximate, (double) w1 * h1);
+		}
+
+		// Same with the number of pixels %pixels is relative to (those of all the analyzed pages for a batch of files)
+		ColocalizationMetrics(ColocalizationMoments mo, double weight, boolean approximate, double totalPixels)
+		{
+			double	covariance	= (mo.sxy - mo.sx * mo.sy / mo.n) / (mo.n - 1);
+			double	r;
+
+			xMean				= mo.sx / mo.n;
+			yMean				= mo.sy / mo.n;
+			xStd				= mo.n == 1 ? 0 : Math.sqrt((mo.sxx - mo.sx * mo.sx / mo.n) / (mo.n - 1));
+			yStd				= mo.n == 1 ? 0 : Math.sqrt((mo.syy - mo.sy * mo.sy / mo.n) / (mo.n - 1));
+			r					= covariance / (xStd * yStd);
+			pearson				= Double.isNaN(r) ? 0 : r;
+			overlap				= mo.sxy / Math.sqrt(mo.sxx * mo.syy);
+			k1					= mo.sxy / mo.sxx;
+			k2					= mo.sxy / mo.syy;
+			m1					= mo.m1Num / mo.m1Den;
+			m2					= mo.m2Num / mo.m2Den;
+			m1Norm				= (double) mo.m1NormNum / mo.m1NormDen;
+			m2Norm				= (double) mo.m2NormNum / mo.m2NormDen;
+			slope				= (mo.sxy - mo.sx * mo.sy / mo.n) / (mo.sxx - mo.sx * mo.sx / mo.n);
+			intercept			= yMean - slope * xMean;
+			nbPixels			= Math.round(mo.n * weight);
+			percentPixels		= nbPixels / totalPixels * 100.0;
+			minI1				= mo.minI1;
+			maxI1				= mo.maxI1;
+			minI2				= mo.minI2;
+			maxI2				= mo.maxI2;
+			average1			= xMean * scatterPlotMax1 / 255;
+			average2			= yMean * scatterPlotMax2 / 255;
+			intensityMean1		= mo.sumI1 / mo.nbAnalyzed;
+			intensityMean2		= mo.sumI2 / mo.nbAnalyzed;
+			intensityMax1		= mo.maxValue1;
+			intensityMax2		= mo.maxValue2;
+			slice				= resultImageSlicePosition;
+			this.approximate	= approximate;
+		}
 	}
 
 	public void showAbout()
@@ -1993,6 +6526,88 @@ public class Colocalization_Finder implements	PlugIn, ActionListener, ItemListen
 		String	aboutMessage = 	"Colocalization_finder\n\n" +
 								"Required version:\tImageJ 1.52p01 or higher\n" +
 								"Runing    version:\tImageJ " + IJ.getFullVersion() + "\n\n" +
+								"Version 1.9\n" +
+								"\tDate\t: 19/10/2026\n\n" +
+								"\t- The coefficients are computed once per update into a snapshot shared by the status label and the\n" +
+								"\t  Results window\n" +
+								"\t- While dragging the scatterPlot ROI, an approximate preview computed on a stratified pixel subsample\n" +
+								"\t  fitting a frame time budget is displayed (flagged by a '~' within the label), the exact calculation\n" +
+								"\t  being performed upon release\n" +
+								"\t- All the ROIs of the RoiManager can be analyzed against the scatterPlot ROI in a single pixel pass,\n" +
+								"\t  one row per ROI being written to the Results window (the 'u' key or the analyzeRoiManagerByMacro\n" +
+								"\t  call)\n" +
+								"\t- All the colored scatterPlot ROIs stored within the RoiManager can be evaluated simultaneously in a\n" +
+								"\t  single pixel pass, one row per gate being written to the Results window together with a combined\n" +
+								"\t  multicolor overlay (the 'q' key or the analyzeGatesByMacro call)\n" +
+								"\t- The scatterPlot counts are kept within an integer histogram (no more saturating at 255), displayed\n" +
+								"\t  through a Counts, Linear, Log or Gamma LUT chosen within the settings dialog, and exportable as a\n" +
+								"\t  32-bit picture (the '9' key or the exportScatterPlotCounts call)\n" +
+								"\t- Threshold sweeps of Pearson's coefficient, M1, M2 and %pixels over all the threshold pairs computed\n" +
+								"\t  from cumulative sums of the scatterPlot histogram, the curves along a chosen diagonal being output\n" +
+								"\t  as a ResultsTable and a Plot (the '6' key or the thresholdSweepByMacro call)\n" +
+								"\t- Percentile bootstrap confidence intervals of Pearson's coefficient, Overlap, k1, k2, M1, M2,\n" +
+								"\t  M1_norm, M2_norm, Slope and Intercept computed in parallel by resampling the joint histogram of the\n" +
+								"\t  analyzed pixels, written for each results row when a number of replicates is set within the settings\n" +
+								"\t  dialog (or by the bootstrapByMacro call)\n" +
+								"\t- Object based colocalization: the spots of both channels (connected components above minI1 and minI2)\n" +
+								"\t  are matched through a k-d tree, the numbers of spots, the percentages of them having a spot of the\n" +
+								"\t  other channel within the chosen distance and the median nearest neighbour distances being appended\n" +
+								"\t  to the Results window together with the distance distributions (the '7' key or the\n" +
+								"\t  analyzeObjectsByMacro call)\n" +
+								"\t- Van Steensel cross-correlation function (Pearson's coefficient versus the x shift of channel 2)\n" +
+								"\t  computed by FFT over all the shifts at once, optionally within the result image ROI, and plotted\n" +
+								"\t  with its peak position and FWHM (the '8' key or the crossCorrelationByMacro call)\n" +
+								"\t- Optional chromatic shift correction: the sub-pixel translation between both channels is estimated by\n" +
+								"\t  FFT phase correlation (once per picture pair and slice) and channel 2 is read through a bilinearly\n" +
+								"\t  interpolated shifted view (Channel_alignment within the settings dialog or the\n" +
+								"\t  setChannelAlignmentByMacro call)\n" +
+								"\t- Local Pearson map: Pearson's coefficient within a sliding window around each pixel (optionally\n" +
+								"\t  restricted to the pixels within the scatterPlot ROI) computed in parallel from integral images and\n" +
+								"\t  displayed as a 32-bit picture next to the result picture (from the maps dialog of the '0' key or the\n" +
+								"\t  localPearsonMapByMacro call)\n" +
+								"\t- Normalized mean deviation product (nMDP) image of the current slice or of the whole stack,\n" +
+								"\t  optionally within the result picture ROI, filled in parallel tiles (from the maps dialog of the '0'\n" +
+								"\t  key or the nmdpImageByMacro call)\n" +
+								"\t- Stacks: the bins, the scatterPlot histogram and the comparison of the slices around the current one\n" +
+								"\t  are precomputed in the background and kept within a small per slice cache, so that slice changes are\n" +
+								"\t  immediate, and the scatterPlot limits are replaced by the stack wide intensity limits once computed\n" +
+								"\t  in the background\n" +
+								"\t- All the channel pairs of a multichannel picture analyzed in a single pixel pass (Pearson's\n" +
+								"\t  coefficient, overlap and Manders coefficients with per channel auto thresholds), for the current\n" +
+								"\t  slice or all of them, written to a ResultsTable together with heat maps (proposed when a\n" +
+								"\t  multichannel picture is the only one open, or the analyzeChannelsByMacro call)\n" +
+								"\t- Time series: every frame of a hyperstack (at the current z position) analyzed with the current\n" +
+								"\t  scatterPlot ROI and optionally the result picture ROI, the frames being computed in parallel and\n" +
+								"\t  cached so that only the new ones are computed, written to a table together with a Pearson's\n" +
+								"\t  coefficient, M1 and M2 versus time plot, optionally following a growing stack (from the maps dialog\n" +
+								"\t  of the '0' key or the timeSeriesByMacro call)\n" +
+								"\t- One versus many: picture 1 compared with every other open picture of its size (or with the given\n" +
+								"\t  ones) through the current scatterPlot ROI and result picture ROI, its values and bins being computed\n" +
+								"\t  once and the targets analyzed in parallel, one row per target being written to the Results window\n" +
+								"\t  (from the dialog of the '0' key or the analyzeTargetsByMacro call)\n" +
+								"\t- Automatic gates proposed from the scatterPlot histogram alone: the smoothed log counts are split\n" +
+								"\t  along the watershed lines between their prominent maxima, each populated region becoming a\n" +
+								"\t  scatterPlot ROI added to the RoiManager as a gate, its size, peak and mean intensities being written\n" +
+								"\t  to a table (from the dialog of the '0' key or the proposeGatesByMacro call)\n" +
+								"\t- Log and quantile binning of the scatterPlot axes (the ScatterPlot_binning choice of the settings\n" +
+								"\t  dialog or the setScatterPlotBinningByMacro call), the bins of 8- and 16-bit intensities being read\n" +
+								"\t  from lookup tables, the gates, axis ticks and statistics following the chosen binning, float\n" +
+								"\t  pictures no longer being clamped to [0, 2^32]\n" +
+								"\t- Histogram pyramid of each slice at full intensity resolution, from which the scatterPlot histogram\n" +
+								"\t  of new limits, size or binning is aggregated without reading the pixels again whenever its bins do\n" +
+								"\t  not split the cells (always for integer limits of integer pictures); the mouse wheel zooms the\n" +
+								"\t  scatterPlot around the pointed intensities, and pans it along channel 1 with shift or channel 2 with\n" +
+								"\t  alt\n" +
+								"\t- scatterPlot limits may be given as percentiles of the whole stack (e.g. \"0.1%\"), see also\n" +
+								"\t  getPercentilesByMacro\n" +
+								"\t- Batch of file pairs: each file of a directory compared with the file of the same name within a\n" +
+								"\t  second directory over all their pages, uncompressed 16-bit TIFF files being memory mapped and their\n" +
+								"\t  pages read in place as ShortBuffer views, the other ones opened by the ImageJ Opener (from the\n" +
+								"\t  dialog of the '0' key or the analyzeFilesByMacro call)\n" +
+								"\t- The batch of file pairs runs as a pipeline of bounded queues: reader threads reading the pairs\n" +
+								"\t  ahead, the analysis threads and a single writer outputting the rows in the order of the files, the\n" +
+								"\t  throughput, busy time and queue depths of each stage being logged (setBatchPipelineByMacro,\n" +
+								"\t  getBatchStatistics)\n\n" +
 								"Version 1.8\n" +
 								"\tAuthor\t: Philippe Carl\n" +
 								"\tEmail\t: philippe.carl at unistra dot fr\n" +